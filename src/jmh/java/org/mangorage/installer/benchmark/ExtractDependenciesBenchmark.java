@@ -0,0 +1,114 @@
+package org.mangorage.installer.benchmark;
+
+import org.mangorage.installer.core.data.Dependency;
+import org.mangorage.installer.core.tasks.ExtractDependenciesTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reading installer-data/dependencies.json out of package jars of different sizes, from the jar index and by actually
+ * opening the jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExtractDependenciesBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int entries;
+
+    @Param({"5", "150"})
+    public int dependencies;
+
+    private Path directory;
+    private List<File> jars;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("installer-jmh");
+        final var jar = directory.resolve("package.jar");
+
+        try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+            final var filler = new byte[512];
+            for (int i = 0; i < entries; i++) {
+                out.putNextEntry(new ZipEntry("org/mangorage/generated/Class%s.class".formatted(i)));
+                out.write(filler);
+                out.closeEntry();
+            }
+
+            out.putNextEntry(new ZipEntry("installer-data/dependencies.json"));
+            out.write(generateDependencies(dependencies).getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        jars = List.of(jar.toFile());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * The jar didn't change since it was indexed, the usual case from the second run on.
+     */
+    @Benchmark
+    public List<Dependency> extractDependencies() {
+        return ExtractDependenciesTask.extractDependencies(jars);
+    }
+
+    /**
+     * The jar changed before every call, so it gets scanned every time, like on a first run or after an update.
+     */
+    @Benchmark
+    public List<Dependency> extractDependenciesScan(Changed changed) {
+        return ExtractDependenciesTask.extractDependencies(jars);
+    }
+
+    /**
+     * Gives the jar a new modification time, which is enough for the jar index to read it again.
+     */
+    @State(Scope.Thread)
+    public static class Changed {
+        private long modified;
+
+        @Setup(Level.Invocation)
+        public void touch(ExtractDependenciesBenchmark benchmark) throws IOException {
+            Files.setLastModifiedTime(benchmark.jars.get(0).toPath(), FileTime.fromMillis(++modified));
+        }
+    }
+
+    static String generateDependencies(int count) {
+        final var builder = new StringBuilder("{\"dependencies\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) builder.append(',');
+            builder.append("""
+                    {"url":"https://repo1.maven.org/maven2/","group":"org.example.group%1$s","artifact":"library%1$s","version":"1.%1$s.0",\
+                    "target":"library%1$s-1.%1$s.0.jar","output":"org/example/group%1$s/library%1$s/1.%1$s.0/library%1$s-1.%1$s.0.jar"}"""
+                    .formatted(i));
+        }
+        return builder.append("]}").toString();
+    }
+}
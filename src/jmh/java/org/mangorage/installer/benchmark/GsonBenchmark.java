@@ -0,0 +1,63 @@
+package org.mangorage.installer.benchmark;
+
+import org.mangorage.installer.core.data.Dependencies;
+import org.mangorage.installer.core.data.Installed;
+import org.mangorage.installer.core.data.Packages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * Binding the json files the installer reads on every start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GsonBenchmark {
+    private String packages;
+    private String installed;
+    private String dependencies;
+
+    @Setup
+    public void setup() {
+        final var packagesBuilder = new StringBuilder("{\"destination\":\"boot\",\"packages\":[");
+        final var installedBuilder = new StringBuilder("{\"installed\":[");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) {
+                packagesBuilder.append(',');
+                installedBuilder.append(',');
+            }
+            packagesBuilder.append("""
+                    {"url":"https://maven.mangorage.org/releases","group":"org.mangorage","artifact":"package%1$s",\
+                    "version":"1.+","target":"package%1$s.jar","checkUpdate":true}""".formatted(i));
+            installedBuilder.append("{\"id\":\"package%1$s.jar\",\"version\":\"1.%1$s.0\"}".formatted(i));
+        }
+
+        packages = packagesBuilder.append("]}").toString();
+        installed = installedBuilder.append("]}").toString();
+        dependencies = ExtractDependenciesBenchmark.generateDependencies(150);
+    }
+
+    @Benchmark
+    public Packages packages() {
+        return GSON.fromJson(packages, Packages.class);
+    }
+
+    @Benchmark
+    public Installed installed() {
+        return GSON.fromJson(installed, Installed.class);
+    }
+
+    @Benchmark
+    public Dependencies dependencies() {
+        return GSON.fromJson(dependencies, Dependencies.class);
+    }
+}
@@ -0,0 +1,104 @@
+package org.mangorage.installer.benchmark;
+
+import org.mangorage.installer.core.data.Metadata;
+import org.mangorage.installer.core.data.Version;
+import org.mangorage.installer.core.data.VersionIndex;
+import org.mangorage.installer.core.data.VersionRange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * maven-metadata.xml parsing and version resolution, on metadata shaped like what our repositories serve.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetadataBenchmark {
+    @Param({"10", "100", "1000", "5000"})
+    public int versions;
+
+    private byte[] xml;
+    private Metadata metadata;
+    private List<Version> parsed;
+    private VersionIndex index;
+
+    @Setup
+    public void setup() throws IOException {
+        xml = generateMetadata(versions).getBytes(StandardCharsets.UTF_8);
+        metadata = Metadata.read(new ByteArrayInputStream(xml));
+        parsed = Version.parseMetadata(metadata);
+        index = VersionIndex.of(parsed);
+    }
+
+    /**
+     * Everything a poll needs, versions, latest, release and lastUpdated, in one pass.
+     */
+    @Benchmark
+    public Metadata read() throws IOException {
+        return Metadata.read(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public List<Version> parseMetadata() {
+        return Version.parseMetadata(metadata);
+    }
+
+    @Benchmark
+    public VersionIndex buildIndex() {
+        return VersionIndex.of(parsed);
+    }
+
+    @Benchmark
+    public Version getLatestVersion() {
+        return Version.getLatestVersion(parsed, "1.+");
+    }
+
+    @Benchmark
+    public Version highestInIndex() {
+        return VersionRange.of("1.+").highest(index);
+    }
+
+    @Benchmark
+    public String lastUpdated() throws IOException {
+        return Metadata.read(new ByteArrayInputStream(xml)).lastUpdated();
+    }
+
+    static String generateMetadata(int count) {
+        final var builder = new StringBuilder(64 * count + 512);
+        builder.append("""
+                <?xml version="1.0" encoding="UTF-8"?>
+                <metadata>
+                  <groupId>org.mangorage</groupId>
+                  <artifactId>mangobot</artifactId>
+                  <versioning>
+                """);
+
+        String last = null;
+        final var versions = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            // Mostly releases spread over a few majors, with the odd snapshot in between
+            last = "%s.%s.%s".formatted(i / 1000 + 1, (i / 50) % 20, i % 50);
+            versions.append("      <version>").append(last).append("</version>\n");
+            if (i % 25 == 0) versions.append("      <version>").append(last).append("-SNAPSHOT</version>\n");
+        }
+
+        builder.append("    <latest>").append(last).append("</latest>\n");
+        builder.append("    <release>").append(last).append("</release>\n");
+        builder.append("    <versions>\n").append(versions).append("    </versions>\n");
+        builder.append("    <lastUpdated>20241018174512</lastUpdated>\n");
+        builder.append("  </versioning>\n</metadata>\n");
+        return builder.toString();
+    }
+}
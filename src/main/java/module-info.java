@@ -3,6 +3,9 @@ module org.mangorage.installer {
     requires static jopt.simple;
     requires jdk.unsupported;
     requires java.sql;
+    requires java.net.http;
+    requires java.xml;
+    requires jdk.jfr;
 
     uses org.mangorage.installer.Installer;
 }
\ No newline at end of file
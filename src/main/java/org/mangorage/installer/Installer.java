@@ -6,27 +6,45 @@ import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
 import joptsimple.util.PathConverter;
+import org.mangorage.installer.core.ArtifactStore;
+import org.mangorage.installer.core.ConflictStrategy;
+import org.mangorage.installer.core.DependencyGraph;
+import org.mangorage.installer.core.DownloadScheduler;
+import org.mangorage.installer.core.Http;
+import org.mangorage.installer.core.JarIndex;
+import org.mangorage.installer.core.LazyLibraries;
 import org.mangorage.installer.core.LogUtil;
-import org.mangorage.installer.core.data.Dependency;
-import org.mangorage.installer.core.tasks.ExtractDependenciesTask;
+import org.mangorage.installer.core.MetadataCache;
+import org.mangorage.installer.core.PomResolver;
+import org.mangorage.installer.core.ProcessedPackage;
+import org.mangorage.installer.core.Resilience;
+import org.mangorage.installer.core.SharedStore;
+import org.mangorage.installer.core.UpdateChecker;
+import org.mangorage.installer.core.metrics.Metrics;
+import org.mangorage.installer.core.tasks.AwaitReadinessTask;
+import org.mangorage.installer.core.tasks.ForkTask;
 import org.mangorage.installer.core.tasks.HandleDependenciesTask;
 import org.mangorage.installer.core.tasks.JarTask;
+import org.mangorage.installer.core.tasks.LockfileTask;
 import org.mangorage.installer.core.tasks.ProcessPackagesTask;
+import org.mangorage.installer.core.tasks.StageUpdateTask;
+import org.mangorage.installer.core.tasks.UpdateInstalledVersionsTask;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
 
 public final class Installer {
     public static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
-    public static void main(String[] args) throws InterruptedException {
-        LogUtil.println("Starting Installer in 30 seconds...");
+    public static void main(String[] args) {
+        LogUtil.println("Starting Installer...");
         LogUtil.println("Arguments Supplied: " + Arrays.toString(args));
 
-        Thread.sleep(30_000); // Sleep for 30 seconds
-
         OptionParser parser = new OptionParser();
         parser.allowsUnrecognizedOptions();
 
@@ -44,29 +62,294 @@ public final class Installer {
                 .withRequiredArg()
                 .ofType(Integer.TYPE);
 
+        final OptionSpec<Integer> maxDownloads = parser
+                .accepts("maxDownloads", "Maximum amount of downloads running at the same time")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(16);
+
+        final OptionSpec<Integer> maxDownloadsPerHost = parser
+                .accepts("maxDownloadsPerHost", "Maximum amount of downloads running at the same time against a single host")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(6);
+
+        final OptionSpec<Integer> metadataTtl = parser
+                .accepts("metadataTtl", "How many seconds cached maven-metadata.xml is trusted before asking the repository again")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(60);
+
+        final OptionSpec<Long> waitForPid = parser
+                .accepts("waitForPid", "Wait for this process (usually whatever restarted us) to exit before installing")
+                .withRequiredArg()
+                .ofType(Long.TYPE);
+
+        final OptionSpec<Integer> maxWait = parser
+                .accepts("maxWait", "Maximum amount of seconds to wait on the previous process before installing anyway")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(30);
+
+        final OptionSpec<Integer> connectTimeout = parser
+                .accepts("connectTimeout", "How many seconds we wait to connect to a repository")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(10);
+
+        final OptionSpec<Integer> readTimeout = parser
+                .accepts("readTimeout", "How many seconds we wait for a repository to start responding, at most. Less once we know how fast it usually is")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(30);
+
+        final OptionSpec<Integer> maxAttempts = parser
+                .accepts("maxAttempts", "How many times a request or an interrupted download is tried before giving up")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(3);
+
+        final OptionSpec<Integer> retryBackoff = parser
+                .accepts("retryBackoff", "How many ms we wait at most before the first retry, doubles for every retry after")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(250);
+
+        final OptionSpec<Void> verifyLibraries = parser
+                .accepts("verifyLibraries", "Re-hash every library before installing and download the damaged ones again");
+
+        final OptionSpec<String> conflictStrategy = parser
+                .accepts("conflictStrategy", "Which version of a library to install when packages want different ones: highest, first or fail")
+                .withRequiredArg()
+                .defaultsTo("highest");
+
+        final OptionSpec<Void> transitive = parser
+                .accepts("transitive", "Also install whatever the declared dependencies depend on, read from their poms");
+
+        final OptionSpec<Void> hotReload = parser
+                .accepts("hotReload", "Swap updated packages in without restarting the JVM, if the launched main class has a static shutdown()");
+
+        final OptionSpec<Void> fork = parser
+                .accepts("fork", "Launch the program in its own JVM, with a CDS archive created after every change");
+
+        final OptionSpec<String> jvmOpts = parser
+                .accepts("jvmOpts", "Options for the JVM started by --fork, separated by spaces")
+                .withRequiredArg()
+                .defaultsTo("");
+
+        final OptionSpec<Integer> cdsTraining = parser
+                .accepts("cdsTraining", "Seconds to run the program on its own to create the CDS archive before launching it for real, 0 to create it when the real launch exits")
+                .withRequiredArg()
+                .ofType(Integer.TYPE)
+                .defaultsTo(0);
+
+        final OptionSpec<Path> sharedStore = parser
+                .accepts("sharedStore", "Directory where every installer on this host keeps one copy of each library, libraries/ only links into it")
+                .withRequiredArg()
+                .withValuesConvertedBy(new PathConverter());
+
+        final OptionSpec<Void> lazyLibraries = parser
+                .accepts("lazyLibraries", "Launch as soon as the packages and the critical libraries are installed, the rest is downloaded while the program runs, or the moment it needs one");
+
+        final OptionSpec<String> criticalLibrary = parser
+                .accepts("criticalLibrary", "group:artifact of a library --lazyLibraries waits for before launching, can be given more than once")
+                .withRequiredArg()
+                .withValuesSeparatedBy(',');
+
+        final OptionSpec<Void> refresh = parser
+                .accepts("refresh", "Resolve every package again even if nothing changed since the last install");
+
         var options = parser.parse(args);
 
-        List<File> jars = options.has(manualJar) ? getManualJars(options, manualJar) : ProcessPackagesTask.processPackages(
-                options.has(checkUpdates) && options.has(launchArg),
-                options.has(checkUpdates) ? options.valueOf(checkUpdates) : 0
-        );
+        Metrics.time("readiness", () -> AwaitReadinessTask.awaitReadiness(
+                options.has(waitForPid) ? options.valueOf(waitForPid) : null,
+                Duration.ofSeconds(options.valueOf(maxWait))
+        ));
+
+        MetadataCache.setTtl(Duration.ofSeconds(options.valueOf(metadataTtl)));
+        Http.configure(Duration.ofSeconds(options.valueOf(connectTimeout)), Duration.ofSeconds(options.valueOf(readTimeout)));
+        Resilience.configure(options.valueOf(maxAttempts), Duration.ofMillis(options.valueOf(retryBackoff)));
+        if (options.has(sharedStore)) SharedStore.configure(options.valueOf(sharedStore));
+
+        final boolean lazy = options.has(lazyLibraries) && options.has(launchArg) && !options.has(fork);
+        if (lazy) {
+            LazyLibraries.enable(Set.copyOf(criticalLibrary.values(options)));
+        } else if (options.has(lazyLibraries)) {
+            LogUtil.println("--lazyLibraries only works with --launch and without --fork, installing everything first");
+        }
+
+        if (options.has(verifyLibraries)) {
+            Metrics.time("verify", HandleDependenciesTask::verifyLibraries);
+        }
+
+        final boolean startChecker = options.has(checkUpdates) && options.has(launchArg);
+        final int checkFrequency = options.has(checkUpdates) ? options.valueOf(checkUpdates) : 0;
+
+        // An update downloaded by the previous run, only needs renaming into place
+        Metrics.time("promote", StageUpdateTask::promote);
+
+        // Nothing changed since the last install, no need to ask the network about anything
+        final var warmStart = Metrics.time("lockfile", () -> options.has(manualJar) || options.has(refresh) ? null : LockfileTask.tryWarmStart());
+        Metrics.count(warmStart == null ? "lockfile.miss" : "lockfile.hit");
+
+        final Supplier<List<File>> installer = () -> {
+            final var graph = new DependencyGraph(ConflictStrategy.of(options.valueOf(conflictStrategy)));
+            final var scheduler = new DownloadScheduler(options.valueOf(maxDownloads), options.valueOf(maxDownloadsPerHost));
+            // Only the first install launches early, a hot reload still waits for everything
+            final boolean launchEarly = lazy && !JarTask.isLaunched();
+            try (var resolver = options.has(transitive) ? new PomResolver(options.valueOf(maxDownloads)) : null) {
+                return install(options, manualJar, startChecker && !JarTask.isLaunched(), checkFrequency, scheduler, graph, resolver, launchEarly);
+            } finally {
+                if (!launchEarly) scheduler.close(); // Otherwise closed once the libraries downloading in the background are done
+            }
+        };
 
-        if (jars.isEmpty()) {
-            throw new IllegalStateException("No JARs found to process!");
+        final Runnable stage = () -> stageUpdate(options.valueOf(maxDownloads), options.valueOf(maxDownloadsPerHost), ConflictStrategy.of(options.valueOf(conflictStrategy)), options.has(transitive));
+        if (startChecker && options.has(hotReload)) {
+            UpdateChecker.setUpdateHandler(updated -> hotReload(installer, stage, args));
+        } else if (startChecker) {
+            UpdateChecker.setUpdateHandler(updated -> {
+                stage.run();
+                return false; // Restart into it
+            });
         }
 
-        List<Dependency> dependencies = ExtractDependenciesTask.extractDependencies(jars);
-        HandleDependenciesTask.handleDependencies(dependencies);
+        final List<File> jars;
+        if (warmStart != null) {
+            jars = warmStart.jars();
+            if (lazy) LazyLibraries.installed(warmStart.libraries());
+            if (startChecker) UpdateChecker.startChecker(warmStart.packages(), checkFrequency);
+        } else {
+            try {
+                jars = installer.get();
+            } catch (RuntimeException e) {
+                Metrics.writeReport("failed");
+                throw e;
+            }
+        }
 
-        if (options.has(launchArg)) {
+        if (options.has(launchArg) && options.has(fork)) {
+            LogUtil.println("Finished running installer...");
+            final var jvmOptions = Arrays.stream(options.valueOf(jvmOpts).trim().split("\\s+")).filter(option -> !option.isEmpty()).toList();
+            ForkTask.forkJar(jvmOptions, options.valueOf(cdsTraining), args);
+        } else if (options.has(launchArg)) {
             LogUtil.println("Finished running installer...");
             JarTask.launchJar(jars, args);
         } else {
             LogUtil.println("Finished running installer...");
+            Metrics.writeReport("installed");
             System.exit(0);
         }
     }
 
+    /**
+     * @param launchEarly only wait for the packages and the critical libraries, the rest finishes in the background
+     */
+    private static List<File> install(OptionSet options, OptionSpec<Path> manualJar, boolean startChecker, int checkFrequency, DownloadScheduler scheduler, DependencyGraph graph, PomResolver resolver, boolean launchEarly) {
+        final var packagesHash = LockfileTask.hashPackages();
+        try {
+            // Libraries get queued as soon as the package declaring them lands
+            final var libraries = HandleDependenciesTask.dependencyQueue(scheduler, graph, resolver);
+
+            if (options.has(manualJar)) {
+                final var jars = getManualJars(options, manualJar);
+                if (jars.isEmpty()) {
+                    throw new IllegalStateException("No JARs found to process!");
+                }
+                Metrics.time("packages", () -> {
+                    JarIndex.index(jars);
+                    for (int i = 0; i < jars.size(); i++) libraries.queue(i, jars.get(i));
+                });
+                if (launchEarly) {
+                    awaitCriticalLibraries(scheduler, graph, () -> {});
+                } else {
+                    awaitLibraries(scheduler, graph);
+                }
+                return jars;
+            }
+
+            final List<ProcessedPackage> installed;
+            installed = Metrics.time("packages", () -> ProcessPackagesTask.processPackages(startChecker, checkFrequency, scheduler, libraries));
+            if (installed.isEmpty()) {
+                throw new IllegalStateException("No JARs found to process!");
+            }
+            if (launchEarly) {
+                awaitCriticalLibraries(scheduler, graph, () -> UpdateInstalledVersionsTask.updateInstalledVersions(packagesHash, installed, graph.resolved()));
+                return installed.stream().map(ProcessedPackage::file).toList();
+            }
+            awaitLibraries(scheduler, graph);
+
+            // Only once everything is in place, so a failed install never looks like a complete one
+            UpdateInstalledVersionsTask.updateInstalledVersions(packagesHash, installed, graph.resolved());
+            return installed.stream().map(ProcessedPackage::file).toList();
+        } finally {
+            ArtifactStore.save();
+            JarIndex.save();
+        }
+    }
+
+    /**
+     * Installs the update next to the running application, then hands off to it.
+     * If that's not possible, the update is staged for the restart instead.
+     *
+     * @return false if the application has to be restarted instead
+     */
+    private static boolean hotReload(Supplier<List<File>> installer, Runnable stage, String[] args) {
+        if (!JarTask.canReload()) {
+            LogUtil.println("The launched application has no static shutdown(), restarting instead");
+            stage.run();
+            return false;
+        }
+        try {
+            installer.get();
+            JarTask.reload(args);
+            return true;
+        } catch (RuntimeException e) {
+            LogUtil.println("Hot reload failed, restarting instead: " + e);
+            stage.run();
+            return false;
+        }
+    }
+
+    /**
+     * Downloads the update while the application keeps running, failures only mean the restart will do it instead.
+     */
+    private static void stageUpdate(int maxDownloads, int maxDownloadsPerHost, ConflictStrategy strategy, boolean transitive) {
+        try (var scheduler = new DownloadScheduler(maxDownloads, maxDownloadsPerHost);
+             var resolver = transitive ? new PomResolver(maxDownloads) : null) {
+            StageUpdateTask.stage(scheduler, new DependencyGraph(strategy), resolver);
+        } catch (RuntimeException e) {
+            LogUtil.println("Failed to stage the update, it will be installed on restart instead: " + e);
+        }
+    }
+
+    private static void awaitLibraries(DownloadScheduler scheduler, DependencyGraph graph) {
+        Metrics.time("libraries", scheduler::await);
+        HandleDependenciesTask.removeReplaced(graph);
+        LogUtil.println("Resolved %s libraries from %s declarations".formatted(graph.resolved().size(), graph.getDeclarationCount()));
+    }
+
+    /**
+     * Waits for the critical libraries only, a thread of its own waits for the rest, then runs onComplete
+     * and closes the scheduler. Until then the JVM won't exit.
+     */
+    private static void awaitCriticalLibraries(DownloadScheduler scheduler, DependencyGraph graph, Runnable onComplete) {
+        Metrics.time("critical", LazyLibraries::awaitCritical);
+        final var thread = new Thread(() -> {
+            try (scheduler) {
+                awaitLibraries(scheduler, graph);
+                onComplete.run();
+                Metrics.updateReport(); // With what the program waited on since it was launched
+            } catch (RuntimeException e) {
+                LogUtil.println("Failed to install every library, the next start tries again: " + e.getMessage());
+            } finally {
+                ArtifactStore.save();
+                JarIndex.save();
+            }
+        }, "library-prefetch");
+        thread.start();
+    }
+
     static List<File> getManualJars(OptionSet options, OptionSpec<Path> manualJarSpec) {
         return manualJarSpec.values(options)
                 .stream()
@@ -0,0 +1,337 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.ArtifactRecord;
+import org.mangorage.installer.core.data.Artifacts;
+import org.mangorage.installer.core.data.Checksums;
+import org.mangorage.installer.core.data.Util;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * Keeps the size, modification time and digests of every file we downloaded in installer/artifacts.json.
+ * A file matching its record is trusted as is, anything else gets hashed and checked against the repository's
+ * .sha256 / .sha1 files.
+ */
+public final class ArtifactStore {
+    private static final Path RECORDS_PATH = Path.of("installer/artifacts.json");
+    private static final Path WORKING_DIRECTORY = Path.of("").toAbsolutePath();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<String, ArtifactRecord> RECORDS = new ConcurrentHashMap<>();
+    private static volatile boolean loaded = false;
+    private static volatile boolean dirty = false;
+
+    /**
+     * @return whether the file on disk is still exactly what we recorded when we downloaded it
+     */
+    public static boolean isTrusted(Path file) {
+        final var record = getRecord(file);
+        if (record == null) return false;
+        try {
+            return Files.size(file) == record.size() && Files.getLastModifiedTime(file).toMillis() == record.modified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Trusts the file if it matches its record, otherwise hashes it and checks it against what the repository publishes.
+     *
+     * @return false if the file is missing or doesn't match
+     */
+    public static boolean check(Path file, String url) {
+        if (!Files.exists(file)) return false;
+        if (isTrusted(file)) {
+            Metrics.count("artifact.trusted");
+            return true;
+        }
+
+        try {
+            final var expected = fetchChecksums(url).join();
+            final var actual = hash(file);
+            Metrics.count("artifact.hashed");
+            if (!expected.matches(actual)) {
+                LogUtil.println(file + " doesn't match the checksums published for it");
+                Metrics.count("artifact.mismatch");
+                return false;
+            }
+            record(file, actual);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Fetches {@code url.sha256} and {@code url.sha1} at the same time. Missing ones come back as null.
+     */
+    public static CompletableFuture<Checksums> fetchChecksums(String url) {
+        final var sha256 = fetchChecksum(url + ".sha256");
+        final var sha1 = fetchChecksum(url + ".sha1");
+        return sha256.thenCombine(sha1, (a, b) -> new Checksums(b, a));
+    }
+
+    /**
+     * From the best mirror, the next one only if the request itself failed. A missing checksum is an answer.
+     */
+    private static CompletableFuture<String> fetchChecksum(String url) {
+        final var candidates = Mirrors.candidates(url);
+        // A local repository is what gets verified, not what to verify it against
+        final var remote = candidates.stream().filter(candidate -> !Mirrors.isLocal(candidate)).toList();
+        return fetchChecksum(remote.isEmpty() ? candidates : remote, 0);
+    }
+
+    private static CompletableFuture<String> fetchChecksum(List<String> candidates, int index) {
+        final var candidate = candidates.get(index);
+        final long start = System.nanoTime();
+        return requestChecksum(candidate)
+                .whenComplete((checksum, error) -> {
+                    if (error == null) Mirrors.succeeded(candidate, System.nanoTime() - start, 0);
+                    else Mirrors.failed(candidate);
+                })
+                .exceptionallyCompose(e -> index + 1 < candidates.size() ? fetchChecksum(candidates, index + 1) : CompletableFuture.completedFuture(null));
+    }
+
+    private static CompletableFuture<String> requestChecksum(String url) {
+        final var uri = URI.create(url);
+        if (!Http.isHttp(uri)) {
+            try (InputStream stream = uri.toURL().openStream()) {
+                return CompletableFuture.completedFuture(parseChecksum(new String(stream.readAllBytes(), StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        return Http.sendAsync(Http.request(uri).build())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        Http.discard(response);
+                        return null;
+                    }
+                    try (var body = response.body()) {
+                        return parseChecksum(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+                    } catch (IOException e) {
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Sidecar files are either just the hex digest, or "digest  filename".
+     */
+    private static String parseChecksum(String content) {
+        final var trimmed = content.trim();
+        if (trimmed.isEmpty()) return null;
+        final int space = indexOfWhitespace(trimmed);
+        final var digest = space == -1 ? trimmed : trimmed.substring(0, space);
+        return isHex(digest) ? digest.toLowerCase() : null;
+    }
+
+    private static int indexOfWhitespace(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isWhitespace(value.charAt(i))) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isHex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) == -1) return false;
+        }
+        return !value.isEmpty();
+    }
+
+    public static void record(Path file, Checksums checksums) throws IOException {
+        load();
+        final var key = key(file);
+        RECORDS.put(key, new ArtifactRecord(
+                key,
+                Files.size(file),
+                Files.getLastModifiedTime(file).toMillis(),
+                checksums.sha1(),
+                checksums.sha256()
+        ));
+        dirty = true;
+    }
+
+    /**
+     * Moves the record along with a file that was moved, size and modification time don't change on a rename.
+     */
+    public static void rename(Path from, Path to) {
+        load();
+        final var record = RECORDS.remove(key(from));
+        if (record == null) return;
+        final var key = key(to);
+        RECORDS.put(key, new ArtifactRecord(key, record.size(), record.modified(), record.sha1(), record.sha256()));
+        dirty = true;
+    }
+
+    public static void forget(Path file) {
+        load();
+        if (RECORDS.remove(key(file)) != null) dirty = true;
+    }
+
+    public static ArtifactRecord getRecord(Path file) {
+        load();
+        return RECORDS.get(key(file));
+    }
+
+    public static Checksums hash(Path file) throws IOException {
+        final var digests = new Digests();
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            digests.update(channel, channel.size());
+        }
+        return digests.finish();
+    }
+
+    /**
+     * Re-hashes every jar under the directory across all cores and deletes the ones that don't match their record,
+     * so they get downloaded again.
+     *
+     * @return the amount of files deleted
+     */
+    public static int verifyAll(Path directory) {
+        if (!Files.isDirectory(directory)) return 0;
+        LogUtil.println("Verifying " + directory + "...");
+        load();
+
+        final List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(path -> path.toString().endsWith(".jar")).toList();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to walk " + directory, e);
+        }
+
+        final var deleted = new AtomicInteger();
+        final var unknown = new AtomicInteger();
+        files.parallelStream().forEach(file -> {
+            final var record = RECORDS.get(key(file));
+            if (record == null || (record.sha1() == null && record.sha256() == null)) {
+                unknown.incrementAndGet();
+                return;
+            }
+            try {
+                if (!new Checksums(record.sha1(), record.sha256()).matches(hash(file))) {
+                    LogUtil.println(file + " is corrupted, deleting it");
+                    Files.deleteIfExists(file);
+                    RECORDS.remove(record.path());
+                    dirty = true;
+                    deleted.incrementAndGet();
+                }
+            } catch (IOException e) {
+                LogUtil.println("Failed to verify " + file + ": " + e.getMessage());
+            }
+        });
+
+        LogUtil.println("Verified %s file(s), %s corrupted, %s without a record".formatted(files.size(), deleted.get(), unknown.get()));
+        return deleted.get();
+    }
+
+    public static synchronized void save() {
+        if (!dirty) return;
+        dirty = false; // Before the snapshot, so whatever changes while writing gets saved next time
+        try {
+            Util.writeAtomically(RECORDS_PATH, GSON.toJson(new Artifacts(new ArrayList<>(RECORDS.values()))));
+        } catch (IOException e) {
+            dirty = true;
+            throw new RuntimeException("Error updating artifacts.json", e);
+        }
+    }
+
+    private static void load() {
+        if (loaded) return;
+        synchronized (ArtifactStore.class) {
+            if (loaded) return;
+            if (Files.exists(RECORDS_PATH)) {
+                try (Reader reader = Files.newBufferedReader(RECORDS_PATH)) {
+                    final var artifacts = GSON.fromJson(reader, Artifacts.class);
+                    if (artifacts != null && artifacts.artifacts() != null) {
+                        artifacts.artifacts().forEach(record -> RECORDS.put(record.path(), record));
+                    }
+                } catch (Exception e) {
+                    LogUtil.println("Failed to read artifacts.json, everything will be verified again");
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * @return the path records are stored under, relative to the working directory when possible
+     */
+    public static String key(Path file) {
+        final var absolute = file.toAbsolutePath().normalize();
+        return (absolute.startsWith(WORKING_DIRECTORY) ? WORKING_DIRECTORY.relativize(absolute) : absolute)
+                .toString()
+                .replace('\\', '/');
+    }
+
+    /**
+     * SHA-256 and SHA-1 of the same bytes, updated as they go by.
+     */
+    public static final class Digests {
+        private final MessageDigest sha1;
+        private final MessageDigest sha256;
+
+        public Digests() {
+            try {
+                this.sha1 = MessageDigest.getInstance("SHA-1");
+                this.sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Consumes the remaining bytes of the buffer, without moving its position.
+         */
+        public void update(ByteBuffer buffer) {
+            sha1.update(buffer.duplicate());
+            sha256.update(buffer.duplicate());
+        }
+
+        /**
+         * Feeds the first {@code length} bytes of the channel.
+         */
+        public void update(FileChannel channel, long length) throws IOException {
+            final var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long position = 0;
+            while (position < length) {
+                buffer.limit((int) Math.min(BUFFER_SIZE, length - position));
+                final int read = channel.read(buffer, position);
+                if (read == -1) break;
+                buffer.flip();
+                update(buffer);
+                position += read;
+                buffer.clear();
+            }
+        }
+
+        public Checksums finish() {
+            final var hex = HexFormat.of();
+            return new Checksums(hex.formatHex(sha1.digest()), hex.formatHex(sha256.digest()));
+        }
+    }
+}
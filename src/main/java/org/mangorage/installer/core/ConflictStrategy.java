@@ -0,0 +1,29 @@
+package org.mangorage.installer.core;
+
+import java.util.Locale;
+
+/**
+ * What to do when two packages want different versions of the same library.
+ */
+public enum ConflictStrategy {
+    /**
+     * The highest version wins, versions we can't parse lose against ones we can.
+     */
+    HIGHEST,
+    /**
+     * Whatever the package listed first in packages.json declared wins.
+     */
+    FIRST,
+    /**
+     * Refuse to install anything.
+     */
+    FAIL;
+
+    public static ConflictStrategy of(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Unknown conflict strategy " + name + ", expected highest, first or fail");
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.Dependency;
+import org.mangorage.installer.core.data.Version;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every library declared by the packages, keyed by group:artifact, so each one is installed once at one version.
+ * <p>
+ * Packages can be added in any order, from any thread. The order passed along is what {@link ConflictStrategy#FIRST}
+ * goes by, so the result doesn't depend on which package happened to download first.
+ */
+public final class DependencyGraph {
+    private final ConflictStrategy strategy;
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final List<Dependency> replaced = new ArrayList<>();
+    private int declarations = 0;
+
+    public DependencyGraph(ConflictStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public static String key(Dependency dependency) {
+        return dependency.group() + ":" + dependency.artifact();
+    }
+
+    /**
+     * @param order      where the declaring package stands in packages.json
+     * @param declaredBy what to call the declaring package in error messages
+     * @return the dependencies that became the version to install, either new or replacing another version
+     * @throws IllegalStateException on a conflict with {@link ConflictStrategy#FAIL}
+     */
+    public synchronized List<Dependency> add(int order, String declaredBy, List<Dependency> dependencies) {
+        final List<Dependency> winners = new ArrayList<>();
+        for (Dependency dependency : dependencies) {
+            declarations++;
+            final var key = key(dependency);
+            final var current = nodes.get(key);
+            if (current == null) {
+                nodes.put(key, new Node(dependency, order, declaredBy));
+                winners.add(dependency);
+                continue;
+            }
+            if (current.dependency.version().equals(dependency.version())) {
+                if (order < current.order) current.claim(order, declaredBy);
+                continue;
+            }
+            if (strategy == ConflictStrategy.FAIL) {
+                throw new IllegalStateException("%s is wanted at %s by %s and at %s by %s".formatted(
+                        key, current.dependency.version(), current.declaredBy, dependency.version(), declaredBy
+                ));
+            }
+            if (wins(dependency, order, current)) {
+                LogUtil.println("%s %s (%s) replaces %s (%s)".formatted(key, dependency.version(), declaredBy, current.dependency.version(), current.declaredBy));
+                replaced.add(current.dependency);
+                nodes.put(key, new Node(dependency, order, declaredBy));
+                winners.add(dependency);
+            } else {
+                LogUtil.println("%s %s (%s) loses against %s (%s)".formatted(key, dependency.version(), declaredBy, current.dependency.version(), current.declaredBy));
+            }
+        }
+        return winners;
+    }
+
+    private boolean wins(Dependency dependency, int order, Node current) {
+        if (strategy == ConflictStrategy.FIRST) return order < current.order;
+        return compare(dependency.version(), current.dependency.version()) > 0;
+    }
+
+    private static int compare(String a, String b) {
+        final var versionA = Version.tryParse(a);
+        final var versionB = Version.tryParse(b);
+        if (versionA == null || versionB == null) {
+            if (versionA != versionB) return versionA == null ? -1 : 1;
+            return a.compareTo(b);
+        }
+        return versionA.compareTo(versionB);
+    }
+
+    public synchronized boolean isResolved(Dependency dependency) {
+        final var node = nodes.get(key(dependency));
+        return node != null && node.dependency.equals(dependency);
+    }
+
+    /**
+     * @return one dependency per group:artifact, in the order they were first seen
+     */
+    public synchronized List<Dependency> resolved() {
+        return nodes.values().stream().map(node -> node.dependency).toList();
+    }
+
+    /**
+     * @return the versions that were picked at some point, then lost against another one
+     */
+    public synchronized List<Dependency> replaced() {
+        return List.copyOf(replaced);
+    }
+
+    public synchronized int getDeclarationCount() {
+        return declarations;
+    }
+
+    private static final class Node {
+        private final Dependency dependency;
+        private int order;
+        private String declaredBy;
+
+        private Node(Dependency dependency, int order, String declaredBy) {
+            this.dependency = dependency;
+            this.order = order;
+            this.declaredBy = declaredBy;
+        }
+
+        private void claim(int order, String declaredBy) {
+            this.order = order;
+            this.declaredBy = declaredBy;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs downloads on virtual threads, bounded by a global limit and a per-host limit.
+ * Failures are collected and reported together by {@link #await()}.
+ */
+public final class DownloadScheduler implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore global;
+    private final int perHostLimit;
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    private final Queue<CompletableFuture<?>> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile long started = System.nanoTime();
+
+    public DownloadScheduler(int globalLimit, int perHostLimit) {
+        if (globalLimit < 1 || perHostLimit < 1) throw new IllegalArgumentException("Download limits need to be at least 1");
+        this.global = new Semaphore(globalLimit, true);
+        this.perHostLimit = perHostLimit;
+    }
+
+    /**
+     * @param url  the url being downloaded, used for the per-host limit and error reporting
+     * @param task returns the amount of bytes it transferred
+     */
+    public CompletableFuture<Long> submit(String url, Callable<Long> task) {
+        final var host = hosts.computeIfAbsent(hostOf(url), h -> new Semaphore(perHostLimit, true));
+        final var future = CompletableFuture.supplyAsync(() -> {
+            try {
+                host.acquire();
+                try {
+                    global.acquire();
+                    try {
+                        final long transferred = task.call();
+                        bytes.add(transferred);
+                        if (transferred == 0) Metrics.count("download.skipped");
+                        completed.incrementAndGet();
+                        return transferred;
+                    } finally {
+                        global.release();
+                    }
+                } finally {
+                    host.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failures.add(new Failure(url, e));
+                throw new IllegalStateException("Interrupted while downloading " + url, e);
+            } catch (Exception e) {
+                failures.add(new Failure(url, e));
+                throw e instanceof RuntimeException re ? re : new IllegalStateException(e);
+            }
+        }, executor);
+        pending.add(future);
+        return future;
+    }
+
+    /**
+     * Waits for everything submitted so far (including downloads submitted while waiting),
+     * logs a summary of what happened since the last call and throws if anything failed.
+     */
+    public void await() {
+        CompletableFuture<?> future;
+        while ((future = pending.poll()) != null) {
+            try {
+                future.join();
+            } catch (Exception ignored) {
+                // Recorded in failures
+            }
+        }
+
+        final var now = System.nanoTime();
+        final var elapsed = (now - started) / 1_000_000;
+        started = now;
+        LogUtil.println("Downloaded %s file(s), %s bytes in %sms".formatted(completed.getAndSet(0), bytes.sumThenReset(), elapsed));
+
+        if (!failures.isEmpty()) {
+            final List<Failure> failed = new ArrayList<>(failures);
+            failures.clear();
+            failed.forEach(f -> LogUtil.println("Failed to download " + f.url() + ": " + f.cause()));
+            final var exception = new IllegalStateException("Failed to download " + failed.size() + " file(s)");
+            failed.forEach(f -> exception.addSuppressed(f.cause()));
+            throw exception;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private static String hostOf(String url) {
+        try {
+            final var host = URI.create(url).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    private record Failure(String url, Throwable cause) {}
+}
@@ -0,0 +1,184 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.Checksums;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Downloads into {@code <file>.part} and only moves it to its final path once complete.
+ * <p>
+ * Progress is written to {@code <file>.part.progress} every so often, so an interrupted download
+ * resumes with a Range request instead of starting over. The file is preallocated when the size is known,
+ * which is why the progress can't just be taken from the size of the part file.
+ * <p>
+ * SHA-1 and SHA-256 are computed as the bytes go by, and checked against the expected checksums before the move.
+ */
+public final class FileDownloader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL = 1024 * 1024;
+
+    /**
+     * @param expected checked before the file is moved into place, a mismatch throws and discards the download
+     */
+    public static Result download(URI uri, Path destination, Checksums expected) throws IOException {
+        if ("file".equalsIgnoreCase(uri.getScheme())) {
+            // Already on this machine, nothing to download
+            return new Result(0, LocalCopy.install(Path.of(uri), destination, expected));
+        }
+
+        Files.createDirectories(destination.getParent());
+        final var part = destination.resolveSibling(destination.getFileName() + ".part");
+        final var progressFile = destination.resolveSibling(destination.getFileName() + ".part.progress");
+
+        final long start = System.nanoTime();
+        final var progress = Files.exists(part) ? readProgress(progressFile) : Progress.NONE;
+        long offset = 0;
+        long length;
+        String validator = null;
+        InputStream stream;
+
+        if (Http.isHttp(uri)) {
+            final var request = Http.request(uri);
+            if (progress.offset() > 0) {
+                request.header("Range", "bytes=" + progress.offset() + "-");
+                // If the file changed upstream since, we get the whole new one instead of a spliced mess
+                if (progress.validator() != null) request.header("If-Range", progress.validator());
+            }
+
+            final var response = Http.send(request.build());
+            final int code = response.statusCode();
+            if (code == 206 && isRangeFrom(response.headers().firstValue("Content-Range").orElse(null), progress.offset())) {
+                offset = progress.offset();
+                Metrics.count("download.resumed");
+                LogUtil.println("Resuming download of %s at %s bytes".formatted(uri, offset));
+            } else if (code != 200) {
+                Http.discard(response);
+                if (code == 206 || code == 416) {
+                    // Our part file doesn't line up with what's there anymore, start over next time
+                    Files.deleteIfExists(part);
+                    Files.deleteIfExists(progressFile);
+                }
+                throw new IOException("Unexpected response " + code + " from " + uri);
+            }
+
+            validator = response.headers().firstValue("ETag")
+                    .or(() -> response.headers().firstValue("Last-Modified"))
+                    .orElse(null);
+            length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            stream = response.body();
+        } else {
+            final URLConnection connection = uri.toURL().openConnection();
+            length = connection.getContentLengthLong();
+            stream = connection.getInputStream();
+        }
+
+        final long total = length < 0 ? -1 : offset + length;
+        final var digests = new ArtifactStore.Digests();
+        long position = offset;
+
+        try (stream;
+             FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            if (offset == 0) out.truncate(0);
+            if (offset > 0) digests.update(out, offset); // The only part we read back, what we got last time
+            if (total > 0 && out.size() < total) out.write(ByteBuffer.allocate(1), total - 1);
+
+            // Straight from the stream, Channels.newChannel synchronizes its reads and would pin the virtual thread
+            // to its carrier while it waits on the network. With few carriers that starves the http client.
+            final var bytes = new byte[BUFFER_SIZE];
+            final var buffer = ByteBuffer.wrap(bytes);
+            long saved = position;
+            int read;
+            while ((read = stream.read(bytes)) != -1) {
+                buffer.clear().limit(read);
+                digests.update(buffer);
+                while (buffer.hasRemaining()) position += out.write(buffer, position);
+
+                if (position - saved >= PROGRESS_INTERVAL) {
+                    writeProgress(progressFile, new Progress(position, validator));
+                    saved = position;
+                }
+            }
+
+            if (total >= 0 && position != total) {
+                throw new IOException("Download of %s ended at %s of %s bytes".formatted(uri, position, total));
+            }
+
+            out.truncate(position);
+            out.force(true);
+        } catch (IOException e) {
+            if (position > offset) {
+                writeProgress(progressFile, new Progress(position, validator));
+                throw new IncompleteDownloadException(uri, position, e);
+            }
+            throw e;
+        }
+
+        final var checksums = digests.finish();
+        if (!expected.matches(checksums)) {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(progressFile);
+            throw new IOException("Checksum mismatch for %s, expected %s but got %s".formatted(uri, expected, checksums));
+        }
+
+        Files.move(part, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(progressFile);
+        Metrics.recordDownload(uri.toString(), position - offset, System.nanoTime() - start);
+        return new Result(position - offset, checksums);
+    }
+
+    private static boolean isRangeFrom(String contentRange, long offset) {
+        // bytes 1234-5678/5679
+        return contentRange != null && contentRange.startsWith("bytes " + offset + "-");
+    }
+
+    private static Progress readProgress(Path progressFile) {
+        try {
+            final List<String> lines = Files.readAllLines(progressFile, StandardCharsets.UTF_8);
+            if (lines.isEmpty()) return Progress.NONE;
+            return new Progress(Long.parseLong(lines.get(0).trim()), lines.size() > 1 ? lines.get(1) : null);
+        } catch (IOException | NumberFormatException e) {
+            return Progress.NONE;
+        }
+    }
+
+    private static void writeProgress(Path progressFile, Progress progress) {
+        try {
+            Files.writeString(progressFile, progress.validator() == null ? Long.toString(progress.offset()) : progress.offset() + "\n" + progress.validator());
+        } catch (IOException e) {
+            // Worst case we start that one over
+        }
+    }
+
+    /**
+     * Got some of the file before it failed, what we got is kept so trying again resumes.
+     */
+    public static final class IncompleteDownloadException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private IncompleteDownloadException(URI uri, long position, IOException cause) {
+            super("Download of %s failed at %s bytes: %s".formatted(uri, position, cause.getMessage()), cause);
+        }
+    }
+
+    /**
+     * @param received the amount of bytes received by this call
+     */
+    public record Result(long received, Checksums checksums) {}
+
+    private record Progress(long offset, String validator) {
+        static final Progress NONE = new Progress(0, null);
+    }
+}
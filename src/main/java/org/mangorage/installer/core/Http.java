@@ -0,0 +1,277 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one HttpClient every request of the installer goes through, so connections to a repository get reused
+ * (kept alive, or multiplexed over HTTP/2) instead of paying for TCP and TLS setup on every file.
+ */
+public final class Http {
+    private static volatile Duration connectTimeout = Duration.ofSeconds(10);
+    private static volatile Duration readTimeout = Duration.ofSeconds(30);
+    private static volatile HttpClient client;
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final var thread = new Thread(runnable, "http-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Has to be called before the first request to have any effect.
+     *
+     * @param connect how long we wait to connect to a host
+     * @param read    how long we wait for a response to start coming in, at most. See {@link Resilience}.
+     *                Also how long a body may go without sending anything
+     */
+    public static void configure(Duration connect, Duration read) {
+        connectTimeout = connect;
+        readTimeout = read;
+    }
+
+    public static HttpClient getClient() {
+        var result = client;
+        if (result == null) {
+            synchronized (Http.class) {
+                result = client;
+                if (result == null) {
+                    result = client = HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_2)
+                            .followRedirects(HttpClient.Redirect.NORMAL)
+                            .connectTimeout(connectTimeout)
+                            .executor(Executors.newVirtualThreadPerTaskExecutor())
+                            .build();
+                }
+            }
+        }
+        return result;
+    }
+
+    public static HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(readTimeout)
+                .header("User-Agent", "MangoBot-Installer")
+                .GET();
+    }
+
+    /**
+     * Same as {@link #request(URI)}, but asks for a gzipped body. Read it with {@link #body(HttpResponse)}.
+     */
+    public static HttpRequest.Builder compressedRequest(URI uri) {
+        return request(uri).header("Accept-Encoding", "gzip");
+    }
+
+    /**
+     * Retries connection failures, timeouts and 408/429/5xx responses as {@link Resilience} says.
+     * Once out of attempts, the last response is returned or the last exception thrown.
+     */
+    public static HttpResponse<InputStream> send(HttpRequest request) throws IOException {
+        final var host = Resilience.host(request.uri());
+        for (int attempt = 1; ; attempt++) {
+            host.acquire();
+            Metrics.count("http.attempts");
+            final long start = System.nanoTime();
+            try {
+                final var response = getClient().send(withTimeout(request, host), idleTimeout(request.uri(), host));
+                if (!Resilience.isRetryable(response.statusCode())) {
+                    host.succeeded(System.nanoTime() - start);
+                    Metrics.count("http.succeeded");
+                    return response;
+                }
+                host.failed();
+                if (attempt >= Resilience.getMaxAttempts()) {
+                    Metrics.count("http.failed");
+                    return response;
+                }
+                discard(response);
+            } catch (IOException e) {
+                host.failed();
+                if (e instanceof HttpTimeoutException) Metrics.count("http.timeouts");
+                if (attempt >= Resilience.getMaxAttempts()) {
+                    Metrics.count("http.failed");
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while requesting " + request.uri(), e);
+            }
+            Metrics.count("http.retries");
+            Resilience.sleep(Resilience.getBackoff(attempt));
+        }
+    }
+
+    /**
+     * Same as {@link #send(HttpRequest)}, the backoff doesn't hold up a thread.
+     */
+    public static CompletableFuture<HttpResponse<InputStream>> sendAsync(HttpRequest request) {
+        return sendAsync(request, Resilience.host(request.uri()), 1);
+    }
+
+    private static CompletableFuture<HttpResponse<InputStream>> sendAsync(HttpRequest request, Resilience.Host host, int attempt) {
+        try {
+            host.acquire();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Metrics.count("http.attempts");
+        final long start = System.nanoTime();
+
+        return getClient().sendAsync(withTimeout(request, host), idleTimeout(request.uri(), host))
+                .handle((response, error) -> {
+                    if (error == null && !Resilience.isRetryable(response.statusCode())) {
+                        host.succeeded(System.nanoTime() - start);
+                        Metrics.count("http.succeeded");
+                        return CompletableFuture.completedFuture(response);
+                    }
+
+                    host.failed();
+                    final var cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause instanceof HttpTimeoutException) Metrics.count("http.timeouts");
+                    if (attempt >= Resilience.getMaxAttempts()) {
+                        Metrics.count("http.failed");
+                        return cause == null ? CompletableFuture.completedFuture(response) : CompletableFuture.<HttpResponse<InputStream>>failedFuture(cause);
+                    }
+
+                    if (response != null) discard(response);
+                    Metrics.count("http.retries");
+                    final var delayed = CompletableFuture.delayedExecutor(Resilience.getBackoff(attempt), TimeUnit.NANOSECONDS);
+                    return CompletableFuture.supplyAsync(() -> null, delayed).thenCompose(ignored -> sendAsync(request, host, attempt + 1));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * The request timeout only covers the wait for the headers. This one fails the body once the reader asked for
+     * more and nothing came in for the read timeout, so a connection stalling halfway doesn't block a read forever.
+     */
+    private static HttpResponse.BodyHandler<InputStream> idleTimeout(URI uri, Resilience.Host host) {
+        final long timeout = readTimeout.toNanos();
+        return info -> new IdleTimeoutSubscriber(HttpResponse.BodySubscribers.ofInputStream(), uri, host, timeout);
+    }
+
+    private static HttpRequest withTimeout(HttpRequest request, Resilience.Host host) {
+        final var max = request.timeout().orElse(readTimeout);
+        return HttpRequest.newBuilder(request, (name, value) -> true).timeout(host.getTimeout(max)).build();
+    }
+
+    /**
+     * @return the response body, decompressed if the server gzipped it
+     */
+    public static InputStream body(HttpResponse<InputStream> response) throws IOException {
+        final var encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        return encoding.equalsIgnoreCase("gzip") ? new GZIPInputStream(response.body()) : response.body();
+    }
+
+    /**
+     * Throws away whatever is left of the body, so the connection can go back into the pool.
+     */
+    public static void discard(HttpResponse<InputStream> response) {
+        try (var body = response.body()) {
+            body.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException ignored) {
+            // The connection just won't be reused
+        }
+    }
+
+    public static boolean isHttp(URI uri) {
+        return "http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme());
+    }
+
+    private static final class IdleTimeoutSubscriber implements HttpResponse.BodySubscriber<InputStream> {
+        private final HttpResponse.BodySubscriber<InputStream> downstream;
+        private final URI uri;
+        private final Resilience.Host host;
+        private final long timeout;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicLong demand = new AtomicLong();
+
+        private volatile long lastActivity = System.nanoTime();
+        private volatile Flow.Subscription subscription;
+
+        private IdleTimeoutSubscriber(HttpResponse.BodySubscriber<InputStream> downstream, URI uri, Resilience.Host host, long timeout) {
+            this.downstream = downstream;
+            this.uri = uri;
+            this.host = host;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public CompletionStage<InputStream> getBody() {
+            return downstream.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription upstream) {
+            subscription = upstream;
+            downstream.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // Only waiting on the server counts, not a reader that takes its time
+                    if (demand.getAndAdd(n) <= 0) lastActivity = System.nanoTime();
+                    upstream.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    done.set(true);
+                    upstream.cancel();
+                }
+            });
+            WATCHDOG.schedule(this::check, timeout, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            lastActivity = System.nanoTime();
+            demand.decrementAndGet();
+            downstream.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (done.compareAndSet(false, true)) downstream.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (done.compareAndSet(false, true)) downstream.onComplete();
+        }
+
+        private void check() {
+            if (done.get()) return;
+            final long idle = System.nanoTime() - lastActivity;
+            if (demand.get() <= 0 || idle < timeout) {
+                WATCHDOG.schedule(this::check, Math.max(timeout - idle, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+                return;
+            }
+            if (!done.compareAndSet(false, true)) return;
+            host.failed();
+            Metrics.count("http.timeouts");
+            downstream.onError(new HttpTimeoutException("No data from %s for %sms".formatted(uri, TimeUnit.NANOSECONDS.toMillis(idle))));
+            subscription.cancel();
+        }
+    }
+}
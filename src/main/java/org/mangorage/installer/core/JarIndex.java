@@ -0,0 +1,268 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.Dependencies;
+import org.mangorage.installer.core.data.Dependency;
+import org.mangorage.installer.core.data.JarRecord;
+import org.mangorage.installer.core.data.JarRecords;
+import org.mangorage.installer.core.data.Util;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * Keeps the manifest Main-Class, the module descriptor and the declared dependencies of every jar we looked at
+ * in installer/jar-index.json, keyed by path, size and modification time. A jar is only opened again once it changed.
+ */
+public final class JarIndex {
+    private static final Path INDEX_PATH = Path.of("installer/jar-index.json");
+    private static final int VERSION = 2; // 2: packages of resources count too
+    private static final String DEPENDENCIES_PATH = "installer-data/dependencies.json";
+    private static final String MODULE_INFO = "module-info.class";
+    private static final Set<String> KEYWORDS = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null", "_"
+    );
+
+    private static final Map<String, JarRecord> RECORDS = new ConcurrentHashMap<>();
+    private static volatile boolean loaded = false;
+    private static volatile boolean dirty = false;
+
+    /**
+     * @return what the jar contains, from the index if it didn't change since it was last read
+     */
+    public static JarRecord get(File jar) {
+        load();
+        final var path = jar.toPath();
+        final var key = ArtifactStore.key(path);
+        final long size;
+        final long modified;
+        try {
+            size = Files.size(path);
+            modified = Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            throw new RuntimeException("Error processing jar: " + jar.getName(), e);
+        }
+
+        final var record = RECORDS.get(key);
+        if (record != null && record.size() == size && record.modified() == modified) {
+            Metrics.count("jarIndex.hit");
+            return record;
+        }
+
+        Metrics.count("jarIndex.miss");
+        final long start = System.nanoTime();
+        final var scanned = scan(jar, key, size, modified);
+        Metrics.recordLatency("jar.scan", System.nanoTime() - start);
+        RECORDS.put(key, scanned);
+        dirty = true;
+        return scanned;
+    }
+
+    /**
+     * Reads every jar that isn't indexed yet, across all cores.
+     */
+    public static void index(List<File> jars) {
+        jars.parallelStream().forEach(JarIndex::get);
+    }
+
+    private static JarRecord scan(File jar, String key, long size, long modified) {
+        try (var jarFile = new JarFile(jar, true, ZipFile.OPEN_READ, Runtime.version())) {
+            final var manifest = jarFile.getManifest();
+            final var mainClass = manifest == null ? null : manifest.getMainAttributes().getValue("Main-Class");
+
+            final List<Dependency> dependencies = new ArrayList<>();
+            final var dependenciesEntry = jarFile.getEntry(DEPENDENCIES_PATH);
+            if (dependenciesEntry != null) {
+                try (var reader = new InputStreamReader(jarFile.getInputStream(dependenciesEntry))) {
+                    dependencies.addAll(GSON.fromJson(reader, Dependencies.class).dependencies());
+                }
+                dependencies.forEach(dep -> LogUtil.println("Found dependency: " + dep));
+            }
+
+            String moduleName = null;
+            List<String> requires = List.of();
+            String moduleInfo = null;
+            List<String> packages = List.of();
+            final var moduleEntry = jarFile.getJarEntry(MODULE_INFO);
+            if (moduleEntry != null) {
+                final byte[] bytes;
+                try (InputStream stream = jarFile.getInputStream(moduleEntry)) {
+                    bytes = stream.readAllBytes();
+                }
+                // Only walks every entry if module-info.class doesn't list its packages, like ModuleFinder
+                final var descriptor = ModuleDescriptor.read(ByteBuffer.wrap(bytes), () -> findPackages(jarFile));
+                moduleName = descriptor.name();
+                requires = descriptor.requires().stream().map(ModuleDescriptor.Requires::name).sorted().toList();
+                moduleInfo = Base64.getEncoder().encodeToString(bytes);
+                packages = List.copyOf(new TreeSet<>(descriptor.packages()));
+            }
+
+            return new JarRecord(key, size, modified, mainClass, moduleName, requires, moduleInfo, packages, dependencies);
+        } catch (IOException e) {
+            throw new RuntimeException("Error processing jar: " + jar.getName(), e);
+        }
+    }
+
+    /**
+     * Same rules as {@link ModuleFinder}, every file outside META-INF/ counts, resources included, as long as its
+     * directory makes a legal package name.
+     */
+    private static Set<String> findPackages(JarFile jarFile) {
+        final Set<String> packages = new TreeSet<>();
+        jarFile.versionedStream().forEach(entry -> addPackage(entry, packages));
+        return packages;
+    }
+
+    private static void addPackage(JarEntry entry, Set<String> packages) {
+        final var name = entry.getName();
+        if (entry.isDirectory() || name.startsWith("META-INF/")) return;
+        final int slash = name.lastIndexOf('/');
+        if (slash <= 0) return;
+        final var packageName = name.substring(0, slash).replace('/', '.');
+        if (isPackageName(packageName)) packages.add(packageName);
+    }
+
+    private static boolean isPackageName(String name) {
+        for (String part : name.split("\\.", -1)) {
+            if (part.isEmpty() || KEYWORDS.contains(part) || !Character.isJavaIdentifierStart(part.codePointAt(0))) return false;
+            if (!part.codePoints().allMatch(Character::isJavaIdentifierPart)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link ModuleFinder#of(Path...)} on the directory, but built from the index.
+     * Falls back to scanning the directory if any of its jars isn't an explicit module.
+     */
+    public static ModuleFinder moduleFinder(Path directory) {
+        final List<File> jars = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.jar")) {
+            stream.forEach(path -> jars.add(path.toFile()));
+        } catch (IOException e) {
+            return ModuleFinder.of(directory);
+        }
+        index(jars);
+
+        final Map<String, ModuleReference> references = new HashMap<>();
+        for (File jar : jars) {
+            final var record = get(jar);
+            if (record.moduleInfo() == null) return ModuleFinder.of(directory);
+
+            final Set<String> packages = Set.copyOf(record.packages());
+            final var descriptor = ModuleDescriptor.read(ByteBuffer.wrap(Base64.getDecoder().decode(record.moduleInfo())), () -> packages);
+            references.putIfAbsent(descriptor.name(), new IndexedModuleReference(descriptor, jar.toPath()));
+        }
+
+        return new ModuleFinder() {
+            @Override
+            public Optional<ModuleReference> find(String name) {
+                return Optional.ofNullable(references.get(name));
+            }
+
+            @Override
+            public Set<ModuleReference> findAll() {
+                return Set.copyOf(references.values());
+            }
+        };
+    }
+
+    public static synchronized void save() {
+        if (!dirty) return;
+        dirty = false; // A jar indexed while this writes marks it dirty again
+        try {
+            Util.writeAtomically(INDEX_PATH, GSON.toJson(new JarRecords(VERSION, new ArrayList<>(RECORDS.values()))));
+        } catch (IOException e) {
+            dirty = true;
+            LogUtil.println("Failed to update jar-index.json: " + e.getMessage());
+        }
+    }
+
+    private static void load() {
+        if (loaded) return;
+        synchronized (JarIndex.class) {
+            if (loaded) return;
+            if (Files.exists(INDEX_PATH)) {
+                try (Reader reader = Files.newBufferedReader(INDEX_PATH)) {
+                    final var records = GSON.fromJson(reader, JarRecords.class);
+                    if (records != null && records.version() == VERSION && records.jars() != null) {
+                        records.jars().forEach(record -> RECORDS.put(record.path(), record));
+                    }
+                } catch (Exception e) {
+                    LogUtil.println("Failed to read jar-index.json, every jar will be read again");
+                }
+            }
+            loaded = true;
+        }
+    }
+
+    /**
+     * Only opens the jar if something asks for its content, which the layer's class loader never does.
+     */
+    private static final class IndexedModuleReference extends ModuleReference {
+        private final Path jar;
+
+        private IndexedModuleReference(ModuleDescriptor descriptor, Path jar) {
+            super(descriptor, jar.toUri());
+            this.jar = jar;
+        }
+
+        @Override
+        public ModuleReader open() throws IOException {
+            final var jarFile = new JarFile(jar.toFile(), true, ZipFile.OPEN_READ, Runtime.version());
+            final var base = "jar:" + jar.toUri() + "!/";
+            return new ModuleReader() {
+                @Override
+                public Optional<URI> find(String name) {
+                    return Optional.ofNullable(jarFile.getJarEntry(name)).map(entry -> URI.create(base + name));
+                }
+
+                @Override
+                public Optional<InputStream> open(String name) throws IOException {
+                    final var entry = jarFile.getJarEntry(name);
+                    return entry == null ? Optional.empty() : Optional.of(jarFile.getInputStream(entry));
+                }
+
+                @Override
+                public Stream<String> list() {
+                    return jarFile.versionedStream().map(JarEntry::getName).toList().stream();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    jarFile.close();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.Dependency;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Launching before every library is there, enabled with --lazyLibraries.
+ * <p>
+ * Only the packages and the libraries named with --criticalLibrary are waited on, those start downloading the moment
+ * they're declared. The rest keeps downloading in the background in the order they were declared in, while the
+ * application already runs. Its boot jar is loaded by a class loader that also has every library on its path, and
+ * a class or resource it can't find yet makes it download the missing libraries whose group shares a part with its
+ * package right away, on the thread that asked, the closest match first. If no pending library's group looks like
+ * the package, the lookup fails right away instead of waiting on libraries that can't have it.
+ * <p>
+ * Looking up every copy of a resource ({@link ClassLoader#getResources}, which is what {@link java.util.ServiceLoader}
+ * does) waits for all of them, a partial answer would be a wrong one.
+ */
+public final class LazyLibraries {
+    private static final Map<String, Library> LIBRARIES = new ConcurrentHashMap<>();
+    private static final List<Library> ORDER = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger PRIORITY = new AtomicInteger();
+    private static final List<File> INSTALLED = new CopyOnWriteArrayList<>();
+
+    private static volatile Set<String> critical;
+    private static volatile Loader loader;
+
+    /**
+     * @param criticalLibraries group:artifact of the libraries the application can't start without
+     */
+    public static void enable(Set<String> criticalLibraries) {
+        critical = Set.copyOf(criticalLibraries);
+        LogUtil.println("Launching before all libraries are installed, waiting only on " + (critical.isEmpty() ? "the packages" : critical));
+    }
+
+    public static boolean isEnabled() {
+        return critical != null;
+    }
+
+    /**
+     * Libraries that were installed by an earlier run, for a launch that needed no install at all.
+     */
+    public static void installed(List<File> libraries) {
+        INSTALLED.addAll(libraries);
+    }
+
+    /**
+     * Registers a declared library, critical ones start downloading right away.
+     *
+     * @param graph only libraries it still resolves to once downloaded are put on the class path
+     * @return what to fetch the library through, so it's never downloaded twice at once
+     */
+    public static Library track(Dependency dependency, Path root, DependencyGraph graph) {
+        final var created = new Library[1];
+        final var library = LIBRARIES.compute(dependency.output(), (output, existing) -> {
+            // Kept unless it's another version, failed or its file is gone since, a later install tries those again
+            if (existing != null && existing.dependency.equals(dependency) && (!existing.result.isDone() || Files.exists(existing.file))) return existing;
+            if (existing != null) ORDER.remove(existing);
+            created[0] = new Library(dependency, root, graph, PRIORITY.getAndIncrement(), existing);
+            ORDER.add(created[0]);
+            return created[0];
+        });
+        if (created[0] != null && created[0].isCritical()) Thread.ofVirtual().start(created[0]::prefetch);
+        return library;
+    }
+
+    /**
+     * Waits for the critical libraries declared so far.
+     *
+     * @throws IllegalStateException if one of them failed
+     */
+    public static void awaitCritical() {
+        final Set<String> found = new HashSet<>();
+        for (Library library : ORDER) {
+            if (!library.isCritical()) continue;
+            found.add(library.getName());
+            try {
+                library.fetch();
+            } catch (RuntimeException e) {
+                throw new IllegalStateException("Critical library %s failed to download".formatted(library.getName()), e);
+            }
+        }
+        critical.stream().filter(name -> !found.contains(name)).forEach(name -> LogUtil.println("Critical library " + name + " isn't declared by any package"));
+    }
+
+    /**
+     * The loader for the boot jar, with every library on its path, present or not.
+     */
+    public static URLClassLoader createClassLoader(File bootJar, ClassLoader parent) throws MalformedURLException {
+        final var created = new Loader(new URL[]{bootJar.toURI().toURL()}, parent);
+        loader = created; // First, so nothing arriving from now on is missed
+        for (File library : INSTALLED) {
+            if (library.exists()) created.add(library.toPath());
+        }
+        for (Library library : ORDER) {
+            if (library.isNeeded() && Files.exists(library.file)) created.add(library.file);
+        }
+        return created;
+    }
+
+    private static void arrived(Library library) {
+        // Lost against another version in the meantime, which removeReplaced deletes later
+        if (!library.isNeeded()) return;
+        final var current = loader;
+        if (current != null) current.add(library.file);
+    }
+
+    /**
+     * @return the libraries that are yet to arrive and could contain the package, the likeliest first
+     */
+    private static List<Library> pending(String packageName) {
+        final Map<Library, Integer> shared = new HashMap<>();
+        for (Library library : ORDER) {
+            if (library.result.isDone() || !library.isNeeded()) continue;
+            final int prefix = sharedPrefix(library.dependency.group(), packageName);
+            if (prefix > 0) shared.put(library, prefix);
+        }
+        final List<Library> pending = new ArrayList<>(shared.keySet());
+        pending.sort(Comparator.comparingInt((Library library) -> -shared.get(library))
+                .thenComparingInt(library -> library.priority));
+        return pending;
+    }
+
+    /**
+     * @return how many leading dot separated parts both have in common, com.google.code.gson and com.google.gson share 2
+     */
+    private static int sharedPrefix(String group, String packageName) {
+        if (group == null || packageName.isEmpty()) return 0;
+        final var a = group.split("\\.");
+        final var b = packageName.split("\\.");
+        int shared = 0;
+        while (shared < a.length && shared < b.length && a[shared].equals(b[shared])) shared++;
+        return shared;
+    }
+
+    public static final class Library {
+        private final Dependency dependency;
+        private final Path root;
+        private final Path file;
+        private final DependencyGraph graph;
+        private final int priority;
+        private final Library replaced; // Whatever had the same file before, may be null
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        private Library(Dependency dependency, Path root, DependencyGraph graph, int priority, Library replaced) {
+            this.dependency = dependency;
+            this.root = root;
+            this.file = root.resolve(dependency.output()).toAbsolutePath();
+            this.graph = graph;
+            this.priority = priority;
+            this.replaced = replaced;
+        }
+
+        private String getName() {
+            return dependency.group() + ":" + dependency.artifact();
+        }
+
+        private boolean isNeeded() {
+            return graph.isResolved(dependency);
+        }
+
+        private boolean isCritical() {
+            return critical.contains(getName());
+        }
+
+        /**
+         * Downloads it, or waits for whoever already is.
+         *
+         * @return the amount of bytes downloaded, 0 if someone else did
+         */
+        public long fetch() {
+            if (claimed.compareAndSet(false, true)) {
+                if (replaced != null) replaced.retire();
+                // Threads the download starts inherit the context loader, and the JDK looks up services through it.
+                // Through ours, the lookup would wait for every library, this one included.
+                final var thread = Thread.currentThread();
+                final var context = thread.getContextClassLoader();
+                thread.setContextClassLoader(LazyLibraries.class.getClassLoader());
+                try {
+                    final long bytes = dependency.install(root);
+                    arrived(this);
+                    result.complete(bytes);
+                    return bytes;
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    throw e;
+                } finally {
+                    thread.setContextClassLoader(context);
+                }
+            }
+            try {
+                result.join();
+                return 0;
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        /**
+         * Keeps it from starting, or waits until it's done, its replacement writes the same file.
+         */
+        private void retire() {
+            if (claimed.compareAndSet(false, true)) {
+                result.complete(0L);
+                return;
+            }
+            result.exceptionally(e -> 0L).join();
+        }
+
+        private void prefetch() {
+            try {
+                fetch();
+            } catch (RuntimeException e) {
+                LogUtil.println("Failed to download " + getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static final class Loader extends URLClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        private Loader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        private void add(Path file) {
+            try {
+                addURL(file.toUri().toURL());
+            } catch (MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            try {
+                return super.findClass(name);
+            } catch (ClassNotFoundException e) {
+                final int dot = name.lastIndexOf('.');
+                final var found = await(name, dot < 0 ? "" : name.substring(0, dot), () -> {
+                    try {
+                        return super.findClass(name);
+                    } catch (ClassNotFoundException notYet) {
+                        return null;
+                    }
+                });
+                if (found == null) throw e;
+                return found;
+            }
+        }
+
+        @Override
+        public URL findResource(String name) {
+            final var found = super.findResource(name);
+            if (found != null) return found;
+            final int slash = name.lastIndexOf('/');
+            return await(name, slash < 0 ? "" : name.substring(0, slash).replace('/', '.'), () -> super.findResource(name));
+        }
+
+        @Override
+        public Enumeration<URL> findResources(String name) throws IOException {
+            for (Library library : ORDER) {
+                if (!library.result.isDone()) library.prefetch();
+            }
+            return super.findResources(name);
+        }
+
+        /**
+         * Downloads the pending libraries that could have it until the lookup finds it, or none are left.
+         */
+        private <T> T await(String name, String packageName, Supplier<T> lookup) {
+            final var pending = pending(packageName);
+            if (pending.isEmpty()) return lookup.get(); // Might have arrived since the first lookup
+
+            final long start = System.nanoTime();
+            T found = null;
+            for (Library library : pending) {
+                if (!library.claimed.get()) Metrics.count("lazy.onDemand");
+                library.prefetch();
+                if ((found = lookup.get()) != null) break;
+            }
+            final long waited = System.nanoTime() - start;
+            Metrics.recordLatency("lazy.stall", waited);
+            if (found != null) LogUtil.println("Waited %sms on libraries for %s".formatted(TimeUnit.NANOSECONDS.toMillis(waited), name));
+            return found;
+        }
+    }
+}
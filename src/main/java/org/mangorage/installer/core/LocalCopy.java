@@ -0,0 +1,126 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.Checksums;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Installs a file that is already on this machine, e.g. from ~/.m2/repository or any other file: repository,
+ * without streaming it: a hard link if both are on the same filesystem, a reflink if the filesystem can share
+ * blocks between files (btrfs, xfs, ...), a {@link FileChannel#transferTo} copy otherwise.
+ * <p>
+ * A hard link means the installed file and the one in the repository are the same file. That's fine as long
+ * as nobody writes into either of them in place, which neither we nor Maven do, both replace files instead.
+ */
+public final class LocalCopy {
+    private static final boolean CAN_REFLINK = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("linux");
+    private static final Map<List<FileStore>, Boolean> REFLINKS = new ConcurrentHashMap<>();
+
+    /**
+     * @param expected checked against the source before anything is created at the destination
+     * @return the checksums of the installed file
+     */
+    public static Checksums install(Path source, Path destination, Checksums expected) throws IOException {
+        if (!Files.isRegularFile(source)) throw new NoSuchFileException(source.toString());
+
+        final var checksums = ArtifactStore.hash(source);
+        if (!expected.matches(checksums)) {
+            throw new IOException("Checksum mismatch for %s, expected %s but got %s".formatted(source, expected, checksums));
+        }
+
+        Files.createDirectories(destination.toAbsolutePath().getParent());
+        final var temp = destination.resolveSibling(destination.getFileName() + ".local");
+        Files.deleteIfExists(temp);
+
+        final long start = System.nanoTime();
+        final String method;
+        try {
+            if (hardLink(source, temp)) {
+                method = "hardLink";
+            } else if (reflink(source, temp)) {
+                method = "reflink";
+            } else {
+                copy(source, temp);
+                method = "copy";
+            }
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        Metrics.count("local." + method);
+        LogUtil.println("Installed %s from %s (%s, %sms)".formatted(destination, source, method, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return checksums;
+    }
+
+    private static boolean hardLink(Path source, Path target) {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false; // Another filesystem, or one without links
+        }
+    }
+
+    /**
+     * Only worth it where a hard link isn't allowed (fs.protected_hardlinks and someone else's repository) but the
+     * blocks can still be shared. Only tried once per pair of filesystems, most of them can't.
+     */
+    private static boolean reflink(Path source, Path target) {
+        if (!CAN_REFLINK) return false;
+        final List<FileStore> stores;
+        try {
+            stores = List.of(Files.getFileStore(source), Files.getFileStore(target.toAbsolutePath().getParent()));
+        } catch (IOException e) {
+            return false;
+        }
+        if (Boolean.FALSE.equals(REFLINKS.get(stores))) return false;
+
+        boolean linked;
+        try {
+            final var process = new ProcessBuilder("cp", "--reflink=always", source.toString(), target.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            linked = process.waitFor() == 0;
+        } catch (IOException e) {
+            linked = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            linked = false;
+        }
+
+        REFLINKS.put(stores, linked);
+        if (!linked) {
+            try {
+                Files.deleteIfExists(target);
+            } catch (IOException ignored) {
+                // Overwritten by the copy anyway
+            }
+        }
+        return linked;
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        try (var in = FileChannel.open(source, StandardOpenOption.READ);
+             var out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final long size = in.size();
+            long position = 0;
+            while (position < size) position += in.transferTo(position, size - position, out);
+            out.force(true);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.CachedMetadata;
+import org.mangorage.installer.core.data.Metadata;
+import org.mangorage.installer.core.data.Util;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * On-disk cache for maven-metadata.xml, revalidated with If-None-Match / If-Modified-Since.
+ */
+public final class MetadataCache {
+    private static final Path CACHE_PATH = Path.of("installer/cache/metadata");
+
+    private static volatile Duration ttl = Duration.ofSeconds(60);
+
+    public static void setTtl(Duration duration) {
+        ttl = duration;
+    }
+
+    /**
+     * @param revalidate ignore the ttl and always ask the repository (a 304 still costs next to nothing)
+     */
+    public static Metadata fetch(String url, boolean revalidate) {
+        try {
+            return fetchAsync(url, revalidate).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+        }
+    }
+
+    public static CompletableFuture<Metadata> fetchAsync(String url, boolean revalidate) {
+        final var uri = URI.create(url);
+        if (!Http.isHttp(uri)) {
+            // Nothing to revalidate against, e.g. file:// repositories
+            try (InputStream stream = uri.toURL().openStream()) {
+                return CompletableFuture.completedFuture(Metadata.read(stream));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(new IllegalStateException(e));
+            }
+        }
+
+        final var file = getPath(url);
+        final var entryFile = file.resolveSibling(file.getFileName() + ".json");
+        final var entry = Files.exists(file) ? readEntry(entryFile) : null;
+
+        final long start = System.nanoTime();
+        if (entry != null && !revalidate && System.currentTimeMillis() - entry.fetched() < ttl.toMillis()) {
+            LogUtil.println("Using cached Metadata for %s".formatted(url));
+            Metrics.recordMetadataRequest(url, "fresh", System.nanoTime() - start);
+            return CompletableFuture.completedFuture(read(file));
+        }
+
+        LogUtil.println("Downloading Metadata from %s".formatted(url));
+        // Local repositories only know what was installed into them, not what's latest
+        final var candidates = Mirrors.candidates(url).stream().filter(candidate -> !Mirrors.isLocal(candidate)).toList();
+        final var request = candidates.size() == 1 ? send(candidates.get(0), entry) : sendHedged(candidates, entry);
+
+        return request
+                .thenApply(response -> {
+                    try {
+                        final var metadata = handleResponse(response, url, file, entryFile, entry);
+                        Metrics.recordMetadataRequest(url, response.statusCode() == 304 ? "not-modified" : "downloaded", System.nanoTime() - start);
+                        return metadata;
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .handle((metadata, error) -> {
+                    if (error == null) return metadata;
+                    if (entry != null) {
+                        LogUtil.println("Failed to download Metadata from %s, using cached copy".formatted(url));
+                        Metrics.recordMetadataRequest(url, "fallback", System.nanoTime() - start);
+                        return read(file);
+                    }
+                    Metrics.recordMetadataRequest(url, "failed", System.nanoTime() - start);
+                    final var cause = error instanceof CompletionException ? error.getCause() : error;
+                    throw new IllegalStateException(cause);
+                });
+    }
+
+    private static CompletableFuture<HttpResponse<InputStream>> send(String url, CachedMetadata entry) {
+        final var request = Http.compressedRequest(URI.create(url));
+        if (entry != null) {
+            // Validators of whichever mirror answered last time, another one just sends the whole file
+            if (entry.etag() != null) request.header("If-None-Match", entry.etag());
+            if (entry.lastModified() != null) request.header("If-Modified-Since", entry.lastModified());
+        }
+
+        final long start = System.nanoTime();
+        return Http.sendAsync(request.build()).whenComplete((response, error) -> {
+            if (isUsable(response, error)) Mirrors.succeeded(url, System.nanoTime() - start, 0);
+            else Mirrors.failed(url);
+        });
+    }
+
+    /**
+     * Asks the best mirror, and the second best too once the first takes longer than it usually does
+     * (or fails). Whichever usable response comes first wins, the other one is thrown away.
+     */
+    private static CompletableFuture<HttpResponse<InputStream>> sendHedged(List<String> candidates, CachedMetadata entry) {
+        final var result = new CompletableFuture<HttpResponse<InputStream>>();
+        final var pending = new AtomicInteger(1);
+        final var hedged = new AtomicBoolean(false);
+        final Runnable hedge = () -> {
+            if (result.isDone() || !hedged.compareAndSet(false, true)) return;
+            pending.incrementAndGet();
+            Metrics.count("metadata.hedged");
+            race(send(candidates.get(1), entry), result, pending);
+        };
+
+        // The hedge is counted as pending before the first one gets to decide it was the last
+        race(send(candidates.get(0), entry).whenComplete((response, error) -> {
+            if (!isUsable(response, error)) hedge.run();
+        }), result, pending);
+        CompletableFuture.delayedExecutor(Mirrors.hedgeDelay(candidates.get(0)), TimeUnit.NANOSECONDS).execute(hedge);
+        return result;
+    }
+
+    private static void race(CompletableFuture<HttpResponse<InputStream>> request, CompletableFuture<HttpResponse<InputStream>> result, AtomicInteger pending) {
+        request.whenComplete((response, error) -> {
+            final boolean last = pending.decrementAndGet() == 0;
+            if (isUsable(response, error) || last) {
+                final boolean won = error == null ? result.complete(response) : result.completeExceptionally(error);
+                if (won) return;
+            }
+            if (response != null) Http.discard(response);
+        });
+    }
+
+    private static boolean isUsable(HttpResponse<InputStream> response, Throwable error) {
+        return error == null && (response.statusCode() == 200 || response.statusCode() == 304);
+    }
+
+    private static Metadata handleResponse(HttpResponse<InputStream> response, String url, Path file, Path entryFile, CachedMetadata entry) throws IOException {
+        final int code = response.statusCode();
+        if (code == 304 && entry != null) {
+            Http.discard(response);
+            writeEntry(entryFile, entry.withFetched(System.currentTimeMillis()));
+            return read(file);
+        }
+        if (code != 200) {
+            Http.discard(response);
+            throw new IOException("Unexpected response " + code + " from " + url);
+        }
+
+        // Parse while the body is written into the cache, no second pass over it
+        final Metadata metadata;
+        Files.createDirectories(file.getParent());
+        final var temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (InputStream stream = Http.body(response); OutputStream out = Files.newOutputStream(temp)) {
+                final var tee = new TeeInputStream(stream, out);
+                metadata = Metadata.read(tee);
+                tee.transferTo(OutputStream.nullOutputStream());
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        writeEntry(entryFile, new CachedMetadata(
+                url,
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null),
+                System.currentTimeMillis()
+        ));
+        return metadata;
+    }
+
+    /**
+     * @return whatever was cached last for this url, regardless of age, or null
+     */
+    public static Metadata getCached(String url) {
+        final var file = getPath(url);
+        return Files.exists(file) ? read(file) : null;
+    }
+
+    private static Path getPath(String url) {
+        final var uri = URI.create(url);
+        final var authority = uri.getAuthority() == null ? "local" : uri.getAuthority().replace(':', '_');
+        return CACHE_PATH.resolve(authority).resolve(uri.getPath().replaceFirst("^/+", ""));
+    }
+
+    private static Metadata read(Path file) {
+        try (InputStream stream = Files.newInputStream(file)) {
+            return Metadata.read(stream);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static CachedMetadata readEntry(Path entryFile) {
+        if (!Files.exists(entryFile)) return null;
+        try (Reader reader = Files.newBufferedReader(entryFile)) {
+            return GSON.fromJson(reader, CachedMetadata.class);
+        } catch (Exception e) {
+            return null; // Broken entry, just fetch it again
+        }
+    }
+
+    private static void writeEntry(Path entryFile, CachedMetadata entry) throws IOException {
+        Util.writeAtomically(entryFile, GSON.toJson(entry));
+    }
+
+    private static final class TeeInputStream extends FilterInputStream {
+        private final OutputStream out;
+
+        TeeInputStream(InputStream in, OutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) out.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) out.write(b, off, read);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.Dependency;
+import org.mangorage.installer.core.data.Packages;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repositories that serve the same files, and how each of them has been doing this run.
+ * <p>
+ * Any url under a repository that has mirrors can be fetched from all of them. {@link #candidates(String)} puts the
+ * healthy ones first, fastest first: latency as seen on small requests (metadata, poms, checksums) plus the time
+ * a 1MiB download would take at the throughput seen on jars. A mirror that failed a few times in a row sits at the
+ * back for a while. Mirrors nobody measured yet are assumed to answer within the default hedge delay, ties keep the
+ * declared order. Local mirrors (file: urls, or paths like ~/.m2/repository) come before all of them.
+ */
+public final class Mirrors {
+    private static final int SAMPLES = 64;
+    private static final int MIN_SAMPLES = 8;
+    private static final double HEDGE_PERCENTILE = 0.9;
+    private static final long DEFAULT_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MIN_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long SMALL_REQUEST = 64 * 1024;
+    private static final double REFERENCE_SIZE = 1024 * 1024;
+    private static final double WEIGHT = 0.3;
+    private static final int FAILURES_UNTIL_UNHEALTHY = 3;
+    private static final long UNHEALTHY_FOR = TimeUnit.SECONDS.toNanos(30);
+
+    private static final Map<String, List<String>> GROUPS = new ConcurrentHashMap<>();
+    private static final Map<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    /**
+     * @param mirrors other repositories with the same layout and content as the repository, in order of preference
+     */
+    public static void register(String repository, List<String> mirrors) {
+        if (repository == null || mirrors == null || mirrors.isEmpty()) return;
+        final var primary = normalize(repository);
+        if (GROUPS.containsKey(primary)) return;
+
+        final List<String> group = new ArrayList<>();
+        group.add(primary);
+        mirrors.stream().map(Mirrors::normalize).filter(mirror -> !group.contains(mirror)).forEach(group::add);
+        final var copy = List.copyOf(group);
+        copy.forEach(member -> GROUPS.putIfAbsent(member, copy));
+    }
+
+    /**
+     * Registers the mirrors of every package, once packages.json is read.
+     */
+    public static void register(Packages packages) {
+        if (packages == null || packages.packages() == null) return;
+        packages.packages().forEach(pkg -> register(pkg.url(), pkg.mirrors()));
+    }
+
+    /**
+     * Registers the mirrors of every dependency, once a dependencies.json is read.
+     */
+    public static void register(List<Dependency> dependencies) {
+        dependencies.forEach(dependency -> register(dependency.url(), dependency.mirrors()));
+    }
+
+    /**
+     * @return the url, and the same path on every mirror of its repository, best first
+     */
+    public static List<String> candidates(String url) {
+        final var repository = repositoryOf(url);
+        if (repository == null) return List.of(url);
+
+        final var path = url.substring(repository.length());
+        final var group = GROUPS.get(repository);
+        // Downloads keep updating the stats, the sort needs them to hold still
+        final long now = System.nanoTime();
+        final Map<String, Rank> ranks = new HashMap<>();
+        group.forEach(mirror -> ranks.put(mirror, stats(mirror).rank(now)));
+        return group.stream()
+                .sorted(Comparator.comparing((String mirror) -> !isLocal(mirror))
+                        .thenComparing(mirror -> !ranks.get(mirror).healthy())
+                        .thenComparingDouble(mirror -> ranks.get(mirror).score()))
+                .map(mirror -> mirror + path)
+                .toList();
+    }
+
+    /**
+     * @return how long to wait on a request to this url before asking another mirror
+     */
+    public static long hedgeDelay(String url) {
+        final var repository = repositoryOf(url);
+        if (repository == null) return DEFAULT_HEDGE_DELAY;
+        return Math.max(MIN_HEDGE_DELAY, stats(repository).percentile(HEDGE_PERCENTILE, DEFAULT_HEDGE_DELAY));
+    }
+
+    public static void succeeded(String url, long nanos, long bytes) {
+        final var repository = repositoryOf(url);
+        if (repository != null) stats(repository).succeeded(nanos, bytes);
+    }
+
+    public static void failed(String url) {
+        if (isLocal(url)) return; // Not having everything is normal for a local repository
+        final var repository = repositoryOf(url);
+        if (repository != null && stats(repository).failed(System.nanoTime())) {
+            LogUtil.println("%s keeps failing, preferring its mirrors for a while".formatted(repository));
+        }
+    }
+
+    private static String repositoryOf(String url) {
+        if (GROUPS.isEmpty()) return null;
+        String longest = null;
+        for (String repository : GROUPS.keySet()) {
+            if (url.startsWith(repository + "/") && (longest == null || repository.length() > longest.length())) longest = repository;
+        }
+        return longest;
+    }
+
+    private static Stats stats(String repository) {
+        return STATS.computeIfAbsent(repository, r -> new Stats());
+    }
+
+    /**
+     * @return whether the url is on this machine, those are always tried first
+     */
+    public static boolean isLocal(String url) {
+        return url.regionMatches(true, 0, "file:", 0, 5);
+    }
+
+    /**
+     * Paths, like ~/.m2/repository, become file: urls.
+     */
+    private static String normalize(String repository) {
+        var result = repository;
+        if (result.startsWith("~/")) result = Path.of(System.getProperty("user.home"), result.substring(2)).toUri().toString();
+        else if (result.startsWith("/")) result = Path.of(result).toUri().toString();
+        while (result.endsWith("/")) result = result.substring(0, result.length() - 1);
+        return result;
+    }
+
+    private record Rank(boolean healthy, double score) {}
+
+    private static final class Stats {
+        private final long[] latencies = new long[SAMPLES];
+        private int samples = 0;
+        private double latency = 0;
+        private double bytesPerNano = 0;
+        private int failures = 0;
+        private long unhealthyUntil = 0;
+
+        synchronized void succeeded(long nanos, long bytes) {
+            failures = 0;
+            unhealthyUntil = 0;
+            if (bytes < SMALL_REQUEST) {
+                latencies[samples++ % SAMPLES] = nanos;
+                latency = latency == 0 ? nanos : latency + WEIGHT * (nanos - latency);
+            } else if (nanos > 0) {
+                final double sample = (double) bytes / nanos;
+                bytesPerNano = bytesPerNano == 0 ? sample : bytesPerNano + WEIGHT * (sample - bytesPerNano);
+            }
+        }
+
+        /**
+         * @return whether this failure made it unhealthy
+         */
+        synchronized boolean failed(long now) {
+            if (++failures < FAILURES_UNTIL_UNHEALTHY) return false;
+            final boolean wasHealthy = unhealthyUntil <= now;
+            unhealthyUntil = now + UNHEALTHY_FOR;
+            return wasHealthy;
+        }
+
+        synchronized Rank rank(long now) {
+            return new Rank(unhealthyUntil <= now, score());
+        }
+
+        private double score() {
+            // Unmeasured, assume it's about as fast as we'd wait for before hedging
+            final double expectedLatency = latency == 0 ? DEFAULT_HEDGE_DELAY : latency;
+            return expectedLatency + (bytesPerNano == 0 ? 0 : REFERENCE_SIZE / bytesPerNano);
+        }
+
+        synchronized long percentile(double percentile, long fallback) {
+            final int count = Math.min(samples, SAMPLES);
+            if (count < MIN_SAMPLES) return fallback;
+            final long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(count * percentile) - 1)];
+        }
+    }
+}
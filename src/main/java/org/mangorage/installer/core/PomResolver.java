@@ -0,0 +1,403 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.Dependency;
+import org.mangorage.installer.core.data.Pom;
+import org.mangorage.installer.core.data.PomDependency;
+import org.mangorage.installer.core.data.Util;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * Walks the compile and runtime dependencies of libraries through their poms, the way Maven does:
+ * the declaration closest to the root wins, optional dependencies and test/provided scopes are skipped,
+ * and exclusions apply to everything below the dependency declaring them.
+ * <p>
+ * Every pom is fetched once per run no matter how many libraries lead to it, a whole level of the graph at a time.
+ * Parsed release poms are kept in installer/cache/poms, they never change once published.
+ * Close it once done resolving, that stops the threads fetching poms.
+ */
+public final class PomResolver implements AutoCloseable {
+    private static final Path CACHE_PATH = Path.of("installer/cache/poms/2"); // 2: scopes left unset when not written
+    private static final int MAX_INTERPOLATION_DEPTH = 10;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore fetches;
+
+    private final Map<String, CompletableFuture<Pom>> raw = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Pom>> inherited = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Pom>> effective = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxFetches how many poms may be downloading at the same time
+     */
+    public PomResolver(int maxFetches) {
+        this.fetches = new Semaphore(maxFetches);
+    }
+
+    /**
+     * Waits for fetches still running, e.g. poms nobody waited on after a failure.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    /**
+     * @return the declared dependencies followed by everything they pull in, one version per group:artifact
+     */
+    public List<Dependency> resolve(List<Dependency> declared) {
+        final Map<String, Dependency> resolved = new LinkedHashMap<>();
+        List<Node> level = new ArrayList<>();
+        for (Dependency dependency : declared) {
+            if (resolved.putIfAbsent(DependencyGraph.key(dependency), dependency) == null) {
+                level.add(new Node(dependency, Set.of()));
+            }
+        }
+
+        while (!level.isEmpty()) {
+            final List<CompletableFuture<Pom>> poms = new ArrayList<>(level.size());
+            for (Node node : level) {
+                final var dependency = node.dependency();
+                poms.add(effective(dependency.url(), dependency.group(), dependency.artifact(), dependency.version())
+                        .exceptionally(e -> {
+                            LogUtil.println("No pom for %s, not looking any further: %s".formatted(coordinates(dependency), e.getMessage()));
+                            return null;
+                        }));
+            }
+
+            final List<Node> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i++) {
+                final var pom = poms.get(i).join();
+                if (pom == null) continue;
+                final var parent = level.get(i);
+
+                for (PomDependency child : pom.dependencies()) {
+                    final var scope = child.scope() != null ? child.scope() : findManagedScope(pom, child);
+                    if (!isTransitive(child, scope) || isExcluded(parent.exclusions(), child)) continue;
+                    if (resolved.containsKey(child.key())) continue;
+
+                    final var version = child.version() != null ? child.version() : findManagedVersion(pom, child);
+                    if (version == null || version.contains("${") || version.startsWith("[") || version.startsWith("(")) {
+                        LogUtil.println("Can't tell which version of %s %s wants (%s), skipping it".formatted(child.key(), coordinates(parent.dependency()), version));
+                        continue;
+                    }
+
+                    final var dependency = toDependency(parent.dependency(), child, version);
+                    resolved.put(child.key(), dependency);
+
+                    final Set<String> exclusions = new HashSet<>(parent.exclusions());
+                    exclusions.addAll(child.exclusions());
+                    next.add(new Node(dependency, exclusions));
+                }
+            }
+            level = next;
+        }
+
+        return List.copyOf(resolved.values());
+    }
+
+    private static boolean isTransitive(PomDependency dependency, String scope) {
+        if (dependency.isOptional() || !"jar".equals(dependency.type())) return false;
+        return scope.equals("compile") || scope.equals("runtime");
+    }
+
+    private static boolean isExcluded(Set<String> exclusions, PomDependency dependency) {
+        if (exclusions.isEmpty()) return false;
+        return exclusions.contains(dependency.key())
+                || exclusions.contains("*:*")
+                || exclusions.contains(dependency.groupId() + ":*")
+                || exclusions.contains("*:" + dependency.artifactId());
+    }
+
+    /**
+     * @return the scope the parents or imported boms manage for it, compile if none does
+     */
+    private static String findManagedScope(Pom pom, PomDependency dependency) {
+        for (PomDependency managed : pom.dependencyManagement()) {
+            if (managed.key().equals(dependency.key()) && managed.scope() != null) return managed.scope();
+        }
+        return "compile";
+    }
+
+    private static String findManagedVersion(Pom pom, PomDependency dependency) {
+        for (PomDependency managed : pom.dependencyManagement()) {
+            if (managed.key().equals(dependency.key()) && managed.version() != null) return managed.version();
+        }
+        return null;
+    }
+
+    private static Dependency toDependency(Dependency parent, PomDependency dependency, String version) {
+        final var target = dependency.classifier() == null
+                ? "%s-%s.jar".formatted(dependency.artifactId(), version)
+                : "%s-%s-%s.jar".formatted(dependency.artifactId(), version, dependency.classifier());
+        return new Dependency(
+                parent.url(),
+                dependency.groupId(),
+                dependency.artifactId(),
+                version,
+                target,
+                "%s/%s/%s/%s".formatted(Dependency.fixDot(dependency.groupId()), dependency.artifactId(), version, target),
+                parent.mirrors()
+        );
+    }
+
+    private static String coordinates(Dependency dependency) {
+        return DependencyGraph.key(dependency) + ":" + dependency.version();
+    }
+
+    /**
+     * The pom with its parents merged in, properties replaced and imported boms added to its dependency management.
+     */
+    private CompletableFuture<Pom> effective(String repository, String groupId, String artifactId, String version) {
+        return memoize(effective, groupId + ":" + artifactId + ":" + version, () -> inherited(repository, groupId, artifactId, version)
+                .thenApply(PomResolver::interpolate)
+                .thenCompose(pom -> importBoms(repository, pom)));
+    }
+
+    /**
+     * The pom with its parents merged in, still as written.
+     */
+    private CompletableFuture<Pom> inherited(String repository, String groupId, String artifactId, String version) {
+        return memoize(inherited, groupId + ":" + artifactId + ":" + version, () -> fetch(repository, groupId, artifactId, version)
+                .thenCompose(pom -> {
+                    final var parent = pom.parent();
+                    if (parent == null) return CompletableFuture.completedFuture(pom);
+                    return inherited(repository, parent.groupId(), parent.artifactId(), parent.version())
+                            .thenApply(parentPom -> merge(pom, parentPom));
+                }));
+    }
+
+    private static Pom merge(Pom pom, Pom parent) {
+        final Map<String, String> properties = new HashMap<>(parent.properties());
+        properties.putAll(pom.properties());
+
+        final List<PomDependency> managed = new ArrayList<>(pom.dependencyManagement());
+        managed.addAll(parent.dependencyManagement());
+
+        final List<PomDependency> dependencies = new ArrayList<>(pom.dependencies());
+        dependencies.addAll(parent.dependencies());
+
+        return new Pom(
+                pom.groupId() != null ? pom.groupId() : pom.parent().groupId(),
+                pom.artifactId(),
+                pom.version() != null ? pom.version() : pom.parent().version(),
+                pom.packaging(),
+                pom.parent(),
+                properties,
+                managed,
+                dependencies
+        );
+    }
+
+    private static Pom interpolate(Pom pom) {
+        final Map<String, String> properties = new HashMap<>(pom.properties());
+        final var groupId = pom.groupId() != null ? pom.groupId() : pom.parent() == null ? null : pom.parent().groupId();
+        final var version = pom.version() != null ? pom.version() : pom.parent() == null ? null : pom.parent().version();
+        for (String prefix : List.of("project.", "pom.", "")) {
+            if (groupId != null) properties.put(prefix + "groupId", groupId);
+            if (version != null) properties.put(prefix + "version", version);
+            properties.put(prefix + "artifactId", pom.artifactId());
+        }
+        if (pom.parent() != null) {
+            properties.put("project.parent.groupId", pom.parent().groupId());
+            properties.put("project.parent.version", pom.parent().version());
+        }
+
+        return new Pom(
+                groupId,
+                pom.artifactId(),
+                version,
+                pom.packaging(),
+                pom.parent(),
+                pom.properties(),
+                pom.dependencyManagement().stream().map(dependency -> interpolate(dependency, properties)).toList(),
+                pom.dependencies().stream().map(dependency -> interpolate(dependency, properties)).toList()
+        );
+    }
+
+    private static PomDependency interpolate(PomDependency dependency, Map<String, String> properties) {
+        return new PomDependency(
+                interpolate(dependency.groupId(), properties),
+                interpolate(dependency.artifactId(), properties),
+                interpolate(dependency.version(), properties),
+                dependency.type(),
+                interpolate(dependency.classifier(), properties),
+                dependency.scope(),
+                interpolate(dependency.optional(), properties),
+                dependency.exclusions()
+        );
+    }
+
+    private static String interpolate(String value, Map<String, String> properties) {
+        if (value == null) return null;
+        for (int i = 0; i < MAX_INTERPOLATION_DEPTH && value.contains("${"); i++) {
+            final var builder = new StringBuilder(value.length());
+            int position = 0;
+            int start;
+            while ((start = value.indexOf("${", position)) != -1) {
+                final int end = value.indexOf('}', start);
+                if (end == -1) break;
+                builder.append(value, position, start);
+                final var replacement = properties.get(value.substring(start + 2, end));
+                builder.append(replacement != null ? replacement : value.substring(start, end + 1));
+                position = end + 1;
+            }
+            builder.append(value, position, value.length());
+            final var result = builder.toString();
+            if (result.equals(value)) break; // Nothing we know of
+            value = result;
+        }
+        return value;
+    }
+
+    /**
+     * Adds the dependency management of every {@code <scope>import</scope>} bom, after the pom's own entries.
+     */
+    private CompletableFuture<Pom> importBoms(String repository, Pom pom) {
+        final List<PomDependency> own = new ArrayList<>();
+        final List<CompletableFuture<Pom>> boms = new ArrayList<>();
+        for (PomDependency managed : pom.dependencyManagement()) {
+            if ("import".equals(managed.scope()) && "pom".equals(managed.type())) {
+                boms.add(effective(repository, managed.groupId(), managed.artifactId(), managed.version()));
+            } else {
+                own.add(managed);
+            }
+        }
+        if (boms.isEmpty()) return CompletableFuture.completedFuture(pom);
+
+        return CompletableFuture.allOf(boms.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            final List<PomDependency> managed = new ArrayList<>(own);
+            boms.forEach(bom -> managed.addAll(bom.join().dependencyManagement()));
+            return new Pom(pom.groupId(), pom.artifactId(), pom.version(), pom.packaging(), pom.parent(), pom.properties(), managed, pom.dependencies());
+        });
+    }
+
+    /**
+     * The pom exactly as published, from installer/cache/poms if we've seen it before.
+     */
+    private CompletableFuture<Pom> fetch(String repository, String groupId, String artifactId, String version) {
+        return memoize(raw, groupId + ":" + artifactId + ":" + version, () -> CompletableFuture.supplyAsync(() -> {
+            final var cacheFile = CACHE_PATH.resolve("%s/%s/%s/%s-%s.json".formatted(Dependency.fixDot(groupId), artifactId, version, artifactId, version));
+            final var cacheable = !version.endsWith("-SNAPSHOT");
+
+            if (cacheable && Files.exists(cacheFile)) {
+                try (Reader reader = Files.newBufferedReader(cacheFile)) {
+                    final var pom = GSON.fromJson(reader, Pom.class);
+                    if (pom != null) {
+                        Metrics.count("pom.cache.hit");
+                        return pom;
+                    }
+                } catch (Exception e) {
+                    LogUtil.println("Failed to read " + cacheFile + ", downloading it again");
+                }
+            }
+
+            final var url = "%s/%s/%s/%s/%s-%s.pom".formatted(Dependency.fix(repository), Dependency.fixDot(groupId), artifactId, version, artifactId, version);
+            Metrics.count("pom.cache.miss");
+            final long start = System.nanoTime();
+            final var pom = download(url);
+            Metrics.recordLatency("pom.request", System.nanoTime() - start);
+            if (cacheable) write(cacheFile, pom);
+            return pom;
+        }, executor));
+    }
+
+    /**
+     * Tries the mirrors of the repository in turn, best first.
+     */
+    private Pom download(String url) {
+        fetches.acquireUninterruptibly();
+        try {
+            RuntimeException failure = null;
+            for (String candidate : Mirrors.candidates(url)) {
+                final long start = System.nanoTime();
+                try {
+                    final var pom = download(URI.create(candidate));
+                    Mirrors.succeeded(candidate, System.nanoTime() - start, 0);
+                    return pom;
+                } catch (RuntimeException e) {
+                    Mirrors.failed(candidate);
+                    if (failure != null) e.addSuppressed(failure);
+                    failure = e;
+                }
+            }
+            throw failure;
+        } finally {
+            fetches.release();
+        }
+    }
+
+    private static Pom download(URI uri) {
+        try {
+            if (!Http.isHttp(uri)) {
+                try (InputStream stream = uri.toURL().openStream()) {
+                    return Pom.read(stream);
+                }
+            }
+
+            final var response = Http.send(Http.compressedRequest(uri).build());
+            if (response.statusCode() != 200) {
+                Http.discard(response);
+                throw new IllegalStateException("Unexpected response " + response.statusCode() + " from " + uri);
+            }
+            try (var body = Http.body(response)) {
+                return Pom.read(body);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to download " + uri, e);
+        }
+    }
+
+    private static void write(Path file, Pom pom) {
+        try {
+            Util.writeAtomically(file, GSON.toJson(pom));
+        } catch (IOException e) {
+            LogUtil.println("Failed to cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Not computeIfAbsent, the work may complete right away and come back in here for another key.
+     */
+    private static <T> CompletableFuture<T> memoize(Map<String, CompletableFuture<T>> cache, String key, Supplier<CompletableFuture<T>> work) {
+        final var existing = cache.get(key);
+        if (existing != null) return existing;
+
+        final var future = new CompletableFuture<T>();
+        final var raced = cache.putIfAbsent(key, future);
+        if (raced != null) return raced;
+
+        try {
+            work.get().whenComplete((result, error) -> {
+                if (error != null) future.completeExceptionally(error);
+                else future.complete(result);
+            });
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private record Node(Dependency dependency, Set<String> exclusions) {}
+}
@@ -5,7 +5,17 @@ import org.mangorage.installer.core.data.Dependency;
 import java.io.File;
 import java.util.List;
 
-public record ProcessedPackage(File file, List<Dependency> dependencies) {
+/**
+ * A package jar that is in place, along with the dependencies it declares.
+ *
+ * @param id      the package's target, or the file name for manually supplied jars
+ * @param version the resolved version, null for manually supplied jars
+ */
+public record ProcessedPackage(String id, String version, File file, List<Dependency> dependencies) {
+    public ProcessedPackage(File file, List<Dependency> dependencies) {
+        this(file.getName(), null, file, dependencies);
+    }
+
     public ProcessedPackage(File file) {
         this(file, List.of());
     }
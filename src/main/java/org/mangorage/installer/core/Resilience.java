@@ -0,0 +1,158 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How hard we try with a host: how many attempts a request gets, how long we wait between them,
+ * how long we wait on a response, and when we stop asking a host at all for a while.
+ * <p>
+ * Timeouts follow what the host has shown so far, the way TCP does it: the smoothed latency plus four times its
+ * deviation, never below {@link #MIN_TIMEOUT} and never above the configured read timeout.
+ * <p>
+ * After {@link #FAILURES_UNTIL_OPEN} failures in a row the host's circuit opens, and every request to it fails
+ * right away instead of waiting on a timeout. Once the cooldown is over one request gets through to probe it,
+ * the cooldown doubles every time that probe fails.
+ */
+public final class Resilience {
+    private static final Duration MIN_TIMEOUT = Duration.ofSeconds(2);
+    private static final int MIN_SAMPLES = 5;
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(10);
+    private static final int FAILURES_UNTIL_OPEN = 5;
+    private static final long COOLDOWN = TimeUnit.SECONDS.toNanos(10);
+    private static final long MAX_COOLDOWN = TimeUnit.MINUTES.toNanos(2);
+
+    private static final Map<String, Host> HOSTS = new ConcurrentHashMap<>();
+
+    private static volatile int maxAttempts = 3;
+    private static volatile Duration backoff = Duration.ofMillis(250);
+
+    /**
+     * @param attempts how many times a request is tried before giving up, at least 1
+     * @param base     how long to wait before the first retry, doubles for every one after
+     */
+    public static void configure(int attempts, Duration base) {
+        maxAttempts = Math.max(1, attempts);
+        backoff = base;
+    }
+
+    public static int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Exponential with full jitter, so retries of many clients that failed together don't arrive together.
+     *
+     * @param attempt the attempt that just failed, starting at 1
+     */
+    public static long getBackoff(int attempt) {
+        final long ceiling = Math.min(MAX_BACKOFF, backoff.toNanos() << Math.min(attempt - 1, 20));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public static void sleep(long nanos) throws IOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    /**
+     * @return whether a response with this status is worth asking for again
+     */
+    public static boolean isRetryable(int status) {
+        return status == 408 || status == 429 || status >= 500;
+    }
+
+    public static Host host(URI uri) {
+        final var authority = uri.getAuthority() == null ? "local" : uri.getAuthority();
+        return HOSTS.computeIfAbsent(authority, Host::new);
+    }
+
+    public static final class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private CircuitOpenException(String host, long retryInNanos) {
+            super("%s failed too often, not asking it again for %sms".formatted(host, TimeUnit.NANOSECONDS.toMillis(retryInNanos)));
+        }
+    }
+
+    public static final class Host {
+        private final String name;
+
+        private double latency = -1;
+        private double deviation = 0;
+        private int samples = 0;
+
+        private int failures = 0;
+        private long openUntil = 0;
+        private long cooldown = COOLDOWN;
+        private boolean open = false;
+        private boolean probing = false;
+
+        private Host(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Lets the request through, unless the circuit is open.
+         */
+        public synchronized void acquire() throws CircuitOpenException {
+            if (!open) return;
+            final long now = System.nanoTime();
+            if (now < openUntil || probing) {
+                Metrics.count("http.rejected");
+                throw new CircuitOpenException(name, Math.max(0, openUntil - now));
+            }
+            probing = true; // Half open, this one finds out if it's back
+        }
+
+        public synchronized Duration getTimeout(Duration max) {
+            if (samples < MIN_SAMPLES) return max;
+            final var adaptive = Duration.ofNanos((long) (latency + 4 * deviation));
+            if (adaptive.compareTo(MIN_TIMEOUT) < 0) return MIN_TIMEOUT.compareTo(max) < 0 ? MIN_TIMEOUT : max;
+            return adaptive.compareTo(max) < 0 ? adaptive : max;
+        }
+
+        public synchronized void succeeded(long nanos) {
+            if (open) LogUtil.println("%s is answering again".formatted(name));
+            failures = 0;
+            open = false;
+            probing = false;
+            cooldown = COOLDOWN;
+
+            samples++;
+            if (latency < 0) {
+                latency = nanos;
+                deviation = nanos / 2.0;
+            } else {
+                deviation += 0.25 * (Math.abs(nanos - latency) - deviation);
+                latency += 0.125 * (nanos - latency);
+            }
+        }
+
+        public synchronized void failed() {
+            failures++;
+            final long now = System.nanoTime();
+            if (probing) {
+                probing = false;
+                cooldown = Math.min(MAX_COOLDOWN, cooldown * 2);
+                openUntil = now + cooldown;
+            } else if (!open && failures >= FAILURES_UNTIL_OPEN) {
+                open = true;
+                openUntil = now + cooldown;
+                Metrics.count("http.circuitOpened");
+                LogUtil.println("%s failed %s times in a row, failing fast for %sms".formatted(name, failures, TimeUnit.NANOSECONDS.toMillis(cooldown)));
+            }
+        }
+    }
+}
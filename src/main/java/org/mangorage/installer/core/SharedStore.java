@@ -0,0 +1,236 @@
+package org.mangorage.installer.core;
+
+import org.mangorage.installer.core.data.ArtifactRecord;
+import org.mangorage.installer.core.data.Checksums;
+import org.mangorage.installer.core.data.Util;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * One copy of every library for all installers on the host, enabled with --sharedStore.
+ * <ul>
+ *     <li>objects/ab/abcd... holds the files, named by their SHA-256. They never change once published.</li>
+ *     <li>refs/host/path.json says which object an url was verified to be, so the next installer needs no network.</li>
+ *     <li>locks/ has one lock file per url, installers fetching the same url wait for each other instead of racing.</li>
+ * </ul>
+ * Everything is published with an atomic rename, an installer killed half way leaves nothing anyone else reads.
+ * An instance's libraries/ are hard links into objects/, symlinks if the store is on another filesystem.
+ * Nothing is ever deleted from the store.
+ */
+public final class SharedStore {
+    private static final long MIN_LOCK_WAIT = 10;
+    private static final long MAX_LOCK_WAIT = 500;
+
+    private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private static volatile Path root;
+
+    public static void configure(Path path) {
+        root = path.toAbsolutePath();
+        LogUtil.println("Sharing libraries through " + root);
+    }
+
+    public static boolean isEnabled() {
+        return root != null;
+    }
+
+    /**
+     * Puts the file behind the url at the destination, from the store if any installer on this host got it before.
+     *
+     * @return the amount of bytes downloaded, 0 if it came from the store
+     */
+    public static long install(String url, Path destination) {
+        final var store = root;
+        final var key = hash(url);
+        final var refFile = getRefPath(store, url);
+        final boolean mutable = url.contains("-SNAPSHOT"); // Same url, different file tomorrow
+
+        try {
+            if (!mutable && link(store, refFile, destination)) {
+                Metrics.count("store.hit");
+                return 0;
+            }
+
+            // One thread of this JVM holds the file lock at a time, the file lock keeps the other JVMs out
+            final var lock = LOCKS.computeIfAbsent(key, k -> new ReentrantLock());
+            lock.lock();
+            try (var channel = FileChannel.open(createParent(store.resolve("locks/" + key + ".lock")), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                final var fileLock = acquire(channel);
+                try {
+                    // Whoever held the lock before us might have just published it
+                    if (!mutable && link(store, refFile, destination)) {
+                        Metrics.count("store.hit");
+                        return 0;
+                    }
+
+                    Metrics.count("store.miss");
+                    final var temp = createParent(store.resolve("tmp/" + key));
+                    final long received = Util.installUrl(url, temp.toString(), false);
+                    final var record = ArtifactStore.getRecord(temp);
+                    ArtifactStore.forget(temp);
+                    if (record == null || record.sha256() == null) throw new IOException("No checksums recorded for " + temp);
+
+                    final var object = publish(store, temp, record.sha256());
+                    final var ref = new ArtifactRecord(store.relativize(object).toString(), Files.size(object), Files.getLastModifiedTime(object).toMillis(), record.sha1(), record.sha256());
+                    writeRef(refFile, ref);
+                    linkObject(object, destination, ref);
+                    return received;
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to install %s through the shared store".formatted(url), e);
+        }
+    }
+
+    /**
+     * Polls instead of blocking in {@link FileChannel#lock()}. Locks are per process, so two installers each holding
+     * one url and waiting on the other's look like a deadlock to the kernel, and the blocking call fails with EDEADLK.
+     */
+    private static FileLock acquire(FileChannel channel) throws IOException {
+        long wait = MIN_LOCK_WAIT;
+        FileLock lock;
+        while ((lock = channel.tryLock()) == null) {
+            Resilience.sleep(TimeUnit.MILLISECONDS.toNanos(wait));
+            wait = Math.min(MAX_LOCK_WAIT, wait * 2);
+        }
+        return lock;
+    }
+
+    /**
+     * @return false if there's no usable object for the ref yet
+     */
+    private static boolean link(Path store, Path refFile, Path destination) throws IOException {
+        final var ref = readRef(refFile);
+        if (ref == null) return false;
+
+        final var object = store.resolve(ref.path());
+        if (!Files.exists(object) || Files.size(object) != ref.size()) return false;
+        if (Files.getLastModifiedTime(object).toMillis() != ref.modified()) {
+            // Someone touched it, make sure it's still what it's named after
+            if (!ArtifactStore.hash(object).sha256().equalsIgnoreCase(ref.sha256())) {
+                LogUtil.println(object + " is corrupted, fetching it again");
+                Files.deleteIfExists(object);
+                return false;
+            }
+        }
+
+        linkObject(object, destination, ref);
+        return true;
+    }
+
+    private static void linkObject(Path object, Path destination, ArtifactRecord ref) throws IOException {
+        Files.createDirectories(destination.getParent());
+        final var temp = destination.resolveSibling(destination.getFileName() + ".link");
+        Files.deleteIfExists(temp);
+        try {
+            try {
+                Files.createLink(temp, object);
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.createSymbolicLink(temp, object);
+            }
+            Files.move(temp, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        ArtifactStore.record(destination, new Checksums(ref.sha1(), ref.sha256()));
+    }
+
+    /**
+     * @return the object, which might have been there already if another url had the same content
+     */
+    private static Path publish(Path store, Path temp, String sha256) throws IOException {
+        final var object = createParent(store.resolve("objects/%s/%s".formatted(sha256.substring(0, 2), sha256)));
+        if (Files.exists(object)) {
+            Files.delete(temp);
+            return object;
+        }
+        // Installed from a local repository, the download is a hard link to e.g. the file in ~/.m2. That one isn't
+        // ours to make read only, and Maven may replace it, so the store gets a copy of its own.
+        final var owned = isLinked(temp) ? copyOf(temp) : temp;
+        try {
+            // Read only, every instance's libraries/ is this very file
+            Files.setPosixFilePermissions(owned, PosixFilePermissions.fromString("r--r--r--"));
+        } catch (UnsupportedOperationException ignored) {
+            // Not a posix filesystem
+        }
+        Files.move(owned, object, StandardCopyOption.ATOMIC_MOVE);
+        return object;
+    }
+
+    /**
+     * @return whether another name points at the same file, true if the filesystem can't tell
+     */
+    private static boolean isLinked(Path file) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Replaces the file with a copy, dropping our link to the original.
+     */
+    private static Path copyOf(Path file) throws IOException {
+        final var copy = file.resolveSibling(file.getFileName() + ".copy");
+        Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(file);
+        return copy;
+    }
+
+    private static Path getRefPath(Path store, String url) {
+        final var uri = URI.create(url);
+        final var authority = uri.getAuthority() == null ? "local" : uri.getAuthority().replace(':', '_');
+        return store.resolve("refs").resolve(authority).resolve(uri.getPath().replaceFirst("^/+", "") + ".json");
+    }
+
+    private static ArtifactRecord readRef(Path refFile) {
+        if (!Files.exists(refFile)) return null;
+        try (Reader reader = Files.newBufferedReader(refFile)) {
+            return GSON.fromJson(reader, ArtifactRecord.class);
+        } catch (Exception e) {
+            return null; // Broken ref, fetch it again
+        }
+    }
+
+    private static void writeRef(Path refFile, ArtifactRecord ref) throws IOException {
+        Util.writeAtomically(refFile, GSON.toJson(ref));
+    }
+
+    private static Path createParent(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        return file;
+    }
+
+    private static String hash(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
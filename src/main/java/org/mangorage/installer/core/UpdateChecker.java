@@ -1,58 +1,174 @@
 package org.mangorage.installer.core;
 
+import org.mangorage.installer.core.data.Metadata;
+import org.mangorage.installer.core.data.Package;
 import org.mangorage.installer.core.data.Packages;
 import org.mangorage.installer.core.data.Util;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import org.mangorage.installer.core.tasks.LockfileTask;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Polls the metadata of every package with checkUpdate set, each on its own schedule.
+ * <p>
+ * A package is polled every checkInterval (or the --checkUpdates frequency), give or take some jitter so a fleet
+ * started at the same time doesn't poll in lockstep. Every poll that finds nothing new waits a bit longer than the last,
+ * every failed one twice as long, both up to a limit. Polls revalidate the cached metadata, so no change costs a 304.
+ */
+public final class UpdateChecker {
+    private static final double JITTER = 0.2;
+    private static final double UNCHANGED_BACKOFF = 1.5;
+    private static final double FAILED_BACKOFF = 2;
+    private static final int MAX_UNCHANGED_FACTOR = 4;
+    private static final int MAX_FAILED_FACTOR = 16;
+    private static final long DISPATCH_DELAY = 1000; // Packages released together get handled together
+
+    private static volatile UpdateChecker current;
+    private static volatile Predicate<List<String>> updateHandler;
+
+    public static synchronized void startChecker(final Packages packages, final int freq) {
+        stopChecker();
+        final List<Poll> polls = packages.packages().stream()
+                .filter(Package::checkUpdate)
+                .map(pkg -> new Poll(pkg, Math.max(1, pkg.getCheckInterval(freq))))
+                .toList();
+        if (polls.isEmpty()) {
+            LogUtil.println("No package wants to be checked for updates");
+            return;
+        }
+
+        LogUtil.println("Starting Update Checker... Checks %s package(s), every %sms by default".formatted(polls.size(), freq));
+        current = new UpdateChecker(polls);
+    }
+
+    /**
+     * Cancels every poll that hasn't started yet, the ones in flight are dropped once they complete.
+     */
+    public static synchronized void stopChecker() {
+        final var checker = current;
+        if (checker == null) return;
+        current = null;
+        checker.executor.shutdownNow();
+    }
+
+    /**
+     * @param handler gets the targets that changed, returns whether it dealt with them in process.
+     *                If it didn't, the installer exits so it gets restarted.
+     */
+    public static void setUpdateHandler(Predicate<List<String>> handler) {
+        updateHandler = handler;
+    }
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "update-checker"));
+    private final Set<String> pending = new LinkedHashSet<>();
+    private boolean dispatchScheduled = false;
+
+    private UpdateChecker(List<Poll> polls) {
+        for (Poll poll : polls) {
+            // What we installed from is the baseline if we still have it, otherwise the first poll sets it
+            final var cached = Util.cachedMetadata(poll.pkg.getMaven());
+            poll.lastUpdated = cached == null ? null : cached.lastUpdated();
+            schedule(poll);
+        }
+    }
+
+    private void schedule(Poll poll) {
+        final double jitter = 1 - JITTER + ThreadLocalRandom.current().nextDouble() * 2 * JITTER;
+        try {
+            executor.schedule(() -> poll(poll), (long) (poll.delay * jitter), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped
+        }
+    }
+
+    private void poll(Poll poll) {
+        // Async, so a hung request only holds up its own package
+        Util.refreshMetadataAsync(poll.pkg.getMaven()).thenApply(metadata -> changed(poll, metadata)).whenComplete((changed, error) -> {
+            if (executor.isShutdown()) return;
+            if (error != null) {
+                LogUtil.println("Failed to check %s for updates: %s".formatted(poll.pkg.target(), error.getMessage()));
+                poll.backOff(FAILED_BACKOFF, MAX_FAILED_FACTOR);
+            } else if (changed) {
+                LogUtil.println("Found update for " + poll.pkg.target());
+                poll.delay = poll.interval;
+                updated(poll.pkg.target());
+            } else {
+                poll.backOff(UNCHANGED_BACKOFF, MAX_UNCHANGED_FACTOR);
+            }
+            schedule(poll);
+        });
+    }
+
+    private static boolean changed(Poll poll, Metadata metadata) {
+        final var lastUpdated = getLastUpdated(metadata);
+        final var previous = poll.lastUpdated;
+        poll.lastUpdated = lastUpdated;
+        return previous != null && !previous.equals(lastUpdated);
+    }
+
+    private static String getLastUpdated(Metadata metadata) {
+        if (metadata.lastUpdated() == null) {
+            throw new IllegalStateException("Can't find your precious <lastUpdated> tag, genius.");
+        }
+        return metadata.lastUpdated();
+    }
+
+    private void updated(String target) {
+        synchronized (pending) {
+            pending.add(target);
+            if (dispatchScheduled) return;
+            dispatchScheduled = true;
+        }
+        try {
+            executor.schedule(this::dispatch, DISPATCH_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped
+        }
+    }
+
+    private void dispatch() {
+        final List<String> updated;
+        synchronized (pending) {
+            updated = new ArrayList<>(pending);
+            pending.clear();
+            dispatchScheduled = false;
+        }
+
+        final var handler = updateHandler;
+        if (handler != null && handler.test(updated)) return;
+
+        LogUtil.println("Exiting... Found update for " + String.join(", ", updated));
+        stopChecker();
+        LockfileTask.invalidate(); // The next start has to resolve it
+        System.exit(0);
+    }
+
+    /**
+     * Only ever touched by one poll at a time, each one schedules the next.
+     */
+    private static final class Poll {
+        private final Package pkg;
+        private final long interval;
+        private long delay;
+        private String lastUpdated;
+
+        private Poll(Package pkg, long interval) {
+            this.pkg = pkg;
+            this.interval = interval;
+            this.delay = interval;
+        }
 
-public final class UpdateChecker extends TimerTask {
-    public static void startChecker(final Packages packages, final int freq) {
-        LogUtil.println("Starting Update Checker... Checks every " + freq + "ms");
-        new UpdateChecker(packages, freq);
-    }
-
-    private final Map<String, String> lastUpdated = new HashMap<>();
-
-    private final Packages packages;
-    private final Timer timer = new Timer();
-
-    UpdateChecker(final Packages packages, final int freq) {
-        this.packages = packages;
-        Executors.newSingleThreadExecutor().execute(() -> start(freq));
-    }
-
-    void start(final int freq) {
-        LogUtil.println("Started Update Checker.");
-        packages
-                .packages()
-                .stream()
-                .forEach(dependency -> {
-                    final var metadata = Util.downloadMetadata(dependency.getMaven());
-                    final var lastUpdatedTime = Util.getLastUpdated(metadata);
-                    lastUpdated.put(dependency.target(), lastUpdatedTime);
-                });
-
-        timer.scheduleAtFixedRate(this, freq, freq);
-    }
-
-    @Override
-    public void run() {
-        packages
-                .packages()
-                .stream()
-                .forEach(dependency -> {
-                    final var metadata = Util.downloadMetadata(dependency.getMaven());
-                    final var lastUpdatedTime = Util.getLastUpdated(metadata);
-                    final var lastCheckedUpdatedTime = lastUpdated.get(dependency.target());
-                    if (lastCheckedUpdatedTime != null) {
-                        if (!lastCheckedUpdatedTime.matches(lastUpdatedTime)) {
-                            LogUtil.println("Exiting... Found update for " + dependency.target());
-                            System.exit(0);
-                        }
-                    }
-                });
+        private void backOff(double factor, int maxFactor) {
+            delay = Math.min((long) Math.ceil(delay * factor), interval * maxFactor);
+        }
     }
 }
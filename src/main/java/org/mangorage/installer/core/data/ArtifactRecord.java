@@ -0,0 +1,9 @@
+package org.mangorage.installer.core.data;
+
+/**
+ * What we know about a file we downloaded, so later runs can trust it without hashing it again.
+ *
+ * @param path     relative to the working directory
+ * @param modified last modified time in epoch millis
+ */
+public record ArtifactRecord(String path, long size, long modified, String sha1, String sha256) {}
@@ -0,0 +1,5 @@
+package org.mangorage.installer.core.data;
+
+import java.util.List;
+
+public record Artifacts(List<ArtifactRecord> artifacts) {}
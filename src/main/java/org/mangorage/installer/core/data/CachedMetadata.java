@@ -0,0 +1,14 @@
+package org.mangorage.installer.core.data;
+
+/**
+ * Validators stored next to a cached maven-metadata.xml
+ *
+ * @param etag         ETag header of the last 200 response, may be null
+ * @param lastModified Last-Modified header of the last 200 response, may be null
+ * @param fetched      when the metadata was last confirmed up to date (epoch millis)
+ */
+public record CachedMetadata(String url, String etag, String lastModified, long fetched) {
+    public CachedMetadata withFetched(long fetched) {
+        return new CachedMetadata(url, etag, lastModified, fetched);
+    }
+}
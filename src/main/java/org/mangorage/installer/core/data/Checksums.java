@@ -0,0 +1,20 @@
+package org.mangorage.installer.core.data;
+
+/**
+ * Lower case hex digests, either may be null when unknown.
+ */
+public record Checksums(String sha1, String sha256) {
+    public static final Checksums NONE = new Checksums(null, null);
+
+    public boolean isEmpty() {
+        return sha1 == null && sha256 == null;
+    }
+
+    /**
+     * @return false if any digest we know of doesn't match
+     */
+    public boolean matches(Checksums actual) {
+        if (sha256 != null && !sha256.equalsIgnoreCase(actual.sha256())) return false;
+        return sha1 == null || sha1.equalsIgnoreCase(actual.sha1());
+    }
+}
@@ -22,11 +22,14 @@
 
 package org.mangorage.installer.core.data;
 
+import org.mangorage.installer.core.ArtifactStore;
 import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.SharedStore;
 
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 public record Dependency(
         String url,
@@ -34,7 +37,8 @@ public record Dependency(
         String artifact,
         String version,
         String target,
-        String output
+        String output,
+        List<String> mirrors // Repositories serving the same files as url
 ) {
     public static String fix(String value) {
         if (value.endsWith("/")) {
@@ -51,7 +55,8 @@ public record Dependency(
         return new Maven(
                 url,
                 group,
-                artifact
+                artifact,
+                mirrors
         );
     }
 
@@ -64,20 +69,30 @@ public record Dependency(
     }
 
     public File download(Path relative) {
+        install(relative);
+        return new File(relative.resolve(output).toAbsolutePath().toString());
+    }
+
+    /**
+     * @return the amount of bytes downloaded, 0 if it was already present
+     */
+    public long install(Path relative) {
         final var dest = relative.resolve(output).toAbsolutePath();
 
         if (Files.exists(dest)) {
-            LogUtil.println(dest + " Already exists!");
-            return new File(dest.toString());
+            if (ArtifactStore.check(dest, url() + output)) {
+                LogUtil.println(dest + " Already exists!");
+                return 0;
+            }
+            LogUtil.println(dest + " is damaged, downloading it again");
         }
 
-        Util.installUrl(
+        if (SharedStore.isEnabled()) return SharedStore.install(url() + output, dest);
+        return Util.installUrl(
                 url() + output,
                 dest.toString(),
                 false
         );
-
-        return new File(dest.toString());
     }
 
 }
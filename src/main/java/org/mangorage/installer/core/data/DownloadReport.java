@@ -0,0 +1,3 @@
+package org.mangorage.installer.core.data;
+
+public record DownloadReport(String url, long bytes, long millis, long bytesPerSecond) {}
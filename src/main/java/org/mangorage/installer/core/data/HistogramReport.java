@@ -0,0 +1,19 @@
+package org.mangorage.installer.core.data;
+
+import java.util.Map;
+
+/**
+ * Percentiles are the upper bound of the bucket they fall in.
+ *
+ * @param buckets amount of samples per upper bound in millis, "+Inf" for the rest
+ */
+public record HistogramReport(
+        long count,
+        double sumMillis,
+        double minMillis,
+        double maxMillis,
+        double p50Millis,
+        double p90Millis,
+        double p99Millis,
+        Map<String, Long> buckets
+) {}
@@ -2,4 +2,10 @@ package org.mangorage.installer.core.data;
 
 import java.util.List;
 
-public record Installed(List<InstalledPackage> installed) { }
+/**
+ * installed.json, the resolved state of the last full install.
+ *
+ * @param packagesHash SHA-256 of the packages.json it was resolved from, null once it shouldn't be trusted anymore
+ * @param libraries    every library installed for the packages
+ */
+public record Installed(String packagesHash, List<InstalledPackage> installed, List<ArtifactRecord> libraries) { }
@@ -1,3 +1,9 @@
 package org.mangorage.installer.core.data;
 
-public record InstalledPackage(String id, String version) {}
+import java.util.List;
+
+/**
+ * @param file         the package jar as it was when installed, may be null in older installed.json files
+ * @param dependencies what the package jar declared, may be null in older installed.json files
+ */
+public record InstalledPackage(String id, String version, ArtifactRecord file, List<Dependency> dependencies) {}
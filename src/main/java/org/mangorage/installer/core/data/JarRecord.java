@@ -0,0 +1,27 @@
+package org.mangorage.installer.core.data;
+
+import java.util.List;
+
+/**
+ * What we need out of a jar, so it only gets opened again once it changed.
+ *
+ * @param path         relative to the working directory
+ * @param modified     last modified time in epoch millis
+ * @param mainClass    Main-Class of the manifest, may be null
+ * @param moduleName   null if the jar has no module-info.class
+ * @param requires     names of the modules it requires, empty if it has no module-info.class
+ * @param moduleInfo   module-info.class, base64, null if it has none
+ * @param packages     every package of the module, classes or resources, empty if it has no module-info.class
+ * @param dependencies what installer-data/dependencies.json declares, empty if it has none
+ */
+public record JarRecord(
+        String path,
+        long size,
+        long modified,
+        String mainClass,
+        String moduleName,
+        List<String> requires,
+        String moduleInfo,
+        List<String> packages,
+        List<Dependency> dependencies
+) {}
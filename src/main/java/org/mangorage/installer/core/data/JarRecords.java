@@ -0,0 +1,8 @@
+package org.mangorage.installer.core.data;
+
+import java.util.List;
+
+/**
+ * @param version how the records were made, records from another version are read again
+ */
+public record JarRecords(int version, List<JarRecord> jars) {}
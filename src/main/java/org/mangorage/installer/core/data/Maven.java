@@ -22,11 +22,14 @@
 
 package org.mangorage.installer.core.data;
 
+import java.util.List;
+
 /**
  * Represents a Maven dependency.
  *
  * @param repository (https://s01.oss.sonatype.org/content/repositories/releases/)
  * @param groupId    (io.github.realmangorage)
  * @param artifactId (mangobot)
+ * @param mirrors    repositories serving the same files, may be null
  */
-public record Maven(String repository, String groupId, String artifactId) {}
+public record Maven(String repository, String groupId, String artifactId, List<String> mirrors) {}
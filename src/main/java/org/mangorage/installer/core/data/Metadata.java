@@ -0,0 +1,91 @@
+package org.mangorage.installer.core.data;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parts of a maven-metadata.xml we care about.
+ *
+ * @param versions    every {@code <versioning><versions><version>}, in document order
+ * @param latest      {@code <versioning><latest>}, may be null
+ * @param release     {@code <versioning><release>}, may be null
+ * @param lastUpdated {@code <versioning><lastUpdated>}, may be null
+ */
+public record Metadata(List<String> versions, String latest, String release, String lastUpdated) {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+    private static final Set<String> TEXT_ELEMENTS = Set.of("latest", "release", "lastUpdated");
+
+    private static XMLInputFactory createFactory() {
+        final var factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Reads the metadata in a single pass straight off the stream, without building the whole document first.
+     * Does not close the stream.
+     */
+    public static Metadata read(InputStream inputStream) throws IOException {
+        try {
+            final XMLStreamReader reader = FACTORY.createXMLStreamReader(inputStream);
+            try {
+                return read(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed maven-metadata.xml", e);
+        }
+    }
+
+    private static Metadata read(XMLStreamReader reader) throws XMLStreamException {
+        final List<String> versions = new ArrayList<>();
+        String latest = null;
+        String release = null;
+        String lastUpdated = null;
+
+        int depth = 0;
+        boolean inVersioning = false;
+        boolean inVersions = false;
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    depth++;
+                    final var name = reader.getLocalName();
+                    if (depth == 2) {
+                        inVersioning = name.equals("versioning");
+                    } else if (depth == 3 && inVersioning && name.equals("versions")) {
+                        inVersions = true;
+                    } else if (depth == 3 && inVersioning && TEXT_ELEMENTS.contains(name)) {
+                        final var value = reader.getElementText().trim(); // Up to and including the end tag
+                        depth--;
+                        switch (name) {
+                            case "latest" -> latest = value;
+                            case "release" -> release = value;
+                            default -> lastUpdated = value;
+                        }
+                    } else if (depth == 4 && inVersions && name.equals("version")) {
+                        versions.add(reader.getElementText().trim());
+                        depth--;
+                    }
+                }
+                case XMLStreamConstants.END_ELEMENT -> {
+                    if (depth == 3) inVersions = false;
+                    else if (depth == 2) inVersioning = false;
+                    depth--;
+                }
+                default -> {}
+            }
+        }
+        return new Metadata(List.copyOf(versions), latest, release, lastUpdated);
+    }
+}
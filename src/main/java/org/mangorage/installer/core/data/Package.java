@@ -1,5 +1,7 @@
 package org.mangorage.installer.core.data;
 
+import java.util.List;
+
 public record Package(
         String url,
         String group,
@@ -7,7 +9,9 @@ public record Package(
         String version,
         String target,
         String destination,
-        boolean checkUpdate
+        boolean checkUpdate,
+        Integer checkInterval, // ms between update checks, defaults to the --checkUpdates frequency
+        List<String> mirrors // Repositories serving the same files as url
 ) {
     public static String fix(String value) {
         if (value.endsWith("/")) {
@@ -24,7 +28,8 @@ public record Package(
         return new Maven(
                 url,
                 group,
-                artifact
+                artifact,
+                mirrors
         );
     }
 
@@ -35,4 +40,8 @@ public record Package(
     public String getDestination(String destinationPath) {
         return this.destination == null ? destinationPath : this.destination;
     }
+
+    public long getCheckInterval(long defaultInterval) {
+        return this.checkInterval == null ? defaultInterval : this.checkInterval;
+    }
 }
@@ -0,0 +1,152 @@
+package org.mangorage.installer.core.data;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a pom.xml needed to find the dependencies of an artifact.
+ * Profiles, build plugins and the like are skipped.
+ *
+ * @param groupId              null if inherited from the parent
+ * @param version              null if inherited from the parent
+ * @param parent               may be null
+ * @param dependencyManagement {@code <dependencyManagement><dependencies>}
+ */
+public record Pom(
+        String groupId,
+        String artifactId,
+        String version,
+        String packaging,
+        PomParent parent,
+        Map<String, String> properties,
+        List<PomDependency> dependencyManagement,
+        List<PomDependency> dependencies
+) {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private static XMLInputFactory createFactory() {
+        final var factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Does not close the stream.
+     */
+    public static Pom read(InputStream inputStream) throws IOException {
+        try {
+            final XMLStreamReader reader = FACTORY.createXMLStreamReader(inputStream);
+            try {
+                return read(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Malformed pom", e);
+        }
+    }
+
+    private static Pom read(XMLStreamReader reader) throws XMLStreamException {
+        final List<String> path = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+
+        final Map<String, String> project = new LinkedHashMap<>();
+        final Map<String, String> parent = new LinkedHashMap<>();
+        final Map<String, String> properties = new LinkedHashMap<>();
+        final List<PomDependency> managed = new ArrayList<>();
+        final List<PomDependency> dependencies = new ArrayList<>();
+
+        Map<String, String> dependency = null;
+        List<String> exclusions = null;
+        Map<String, String> exclusion = null;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    path.add(reader.getLocalName());
+                    text.setLength(0);
+                    if (isDependency(path)) {
+                        dependency = new LinkedHashMap<>();
+                        exclusions = new ArrayList<>();
+                    } else if (dependency != null && path.size() >= 2 && path.get(path.size() - 2).equals("exclusions")) {
+                        exclusion = new LinkedHashMap<>();
+                    }
+                }
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA -> text.append(reader.getText());
+                case XMLStreamConstants.END_ELEMENT -> {
+                    final var name = path.get(path.size() - 1);
+                    final var value = text.toString().trim();
+                    final int depth = path.size();
+
+                    if (depth == 2) {
+                        project.put(name, value);
+                    } else if (depth == 3 && path.get(1).equals("parent")) {
+                        parent.put(name, value);
+                    } else if (depth == 3 && path.get(1).equals("properties")) {
+                        properties.put(name, value);
+                    } else if (dependency != null) {
+                        if (isDependency(path)) {
+                            final var result = toDependency(dependency, exclusions);
+                            (path.get(1).equals("dependencyManagement") ? managed : dependencies).add(result);
+                            dependency = null;
+                            exclusions = null;
+                        } else if (exclusion != null && name.equals("exclusion")) {
+                            exclusions.add(exclusion.getOrDefault("groupId", "*") + ":" + exclusion.getOrDefault("artifactId", "*"));
+                            exclusion = null;
+                        } else if (exclusion != null) {
+                            exclusion.put(name, value);
+                        } else if (path.get(depth - 2).equals("dependency")) {
+                            dependency.put(name, value);
+                        }
+                    }
+
+                    path.remove(path.size() - 1);
+                    text.setLength(0);
+                }
+                default -> {}
+            }
+        }
+
+        return new Pom(
+                project.get("groupId"),
+                project.get("artifactId"),
+                project.get("version"),
+                project.getOrDefault("packaging", "jar"),
+                parent.isEmpty() ? null : new PomParent(parent.get("groupId"), parent.get("artifactId"), parent.get("version")),
+                properties,
+                managed,
+                dependencies
+        );
+    }
+
+    private static boolean isDependency(List<String> path) {
+        // project/dependencies/dependency or project/dependencyManagement/dependencies/dependency
+        return switch (path.size()) {
+            case 3 -> path.get(1).equals("dependencies") && path.get(2).equals("dependency");
+            case 4 -> path.get(1).equals("dependencyManagement") && path.get(2).equals("dependencies") && path.get(3).equals("dependency");
+            default -> false;
+        };
+    }
+
+    private static PomDependency toDependency(Map<String, String> values, List<String> exclusions) {
+        return new PomDependency(
+                values.get("groupId"),
+                values.get("artifactId"),
+                values.get("version"),
+                values.getOrDefault("type", "jar"),
+                values.get("classifier"),
+                values.get("scope"), // Left unset, dependency management may set it
+                values.get("optional"),
+                List.copyOf(exclusions)
+        );
+    }
+}
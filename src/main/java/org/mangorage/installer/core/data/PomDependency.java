@@ -0,0 +1,28 @@
+package org.mangorage.installer.core.data;
+
+import java.util.List;
+
+/**
+ * A {@code <dependency>} of a pom, as written, properties not replaced yet.
+ *
+ * @param scope      null if not written, dependency management may set it, compile otherwise
+ * @param exclusions groupId:artifactId, either may be *
+ */
+public record PomDependency(
+        String groupId,
+        String artifactId,
+        String version,
+        String type,
+        String classifier,
+        String scope,
+        String optional,
+        List<String> exclusions
+) {
+    public String key() {
+        return groupId + ":" + artifactId;
+    }
+
+    public boolean isOptional() {
+        return "true".equalsIgnoreCase(optional);
+    }
+}
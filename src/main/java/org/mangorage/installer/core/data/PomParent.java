@@ -0,0 +1,3 @@
+package org.mangorage.installer.core.data;
+
+public record PomParent(String groupId, String artifactId, String version) {}
@@ -0,0 +1,21 @@
+package org.mangorage.installer.core.data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * installer/last-run.json, written once the installer is done, for monitoring to pick up.
+ *
+ * @param outcome   installed, launched, forked or failed
+ * @param latencies per kind of request
+ */
+public record RunReport(
+        String started,
+        String finished,
+        long durationMillis,
+        String outcome,
+        List<SpanReport> spans,
+        Map<String, Long> counters,
+        Map<String, HistogramReport> latencies,
+        List<DownloadReport> downloads
+) {}
@@ -0,0 +1,6 @@
+package org.mangorage.installer.core.data;
+
+/**
+ * @param startMillis since the installer started
+ */
+public record SpanReport(String name, String thread, long startMillis, long durationMillis) {}
@@ -0,0 +1,10 @@
+package org.mangorage.installer.core.data;
+
+import java.util.List;
+
+/**
+ * installer/staging/staged.json, an update that was fully downloaded and verified while the previous version was running.
+ *
+ * @param installed what installed.json becomes once the files are promoted
+ */
+public record Staged(Installed installed, List<StagedFile> files) {}
@@ -0,0 +1,7 @@
+package org.mangorage.installer.core.data;
+
+/**
+ * @param staged where it was downloaded to, relative to the working directory
+ * @param target where it goes once promoted, relative to the working directory
+ */
+public record StagedFile(String staged, String target) {}
@@ -22,24 +22,28 @@
 
 package org.mangorage.installer.core.data;
 
+import org.mangorage.installer.core.ArtifactStore;
+import org.mangorage.installer.core.FileDownloader;
 import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.MetadataCache;
+import org.mangorage.installer.core.Mirrors;
+import org.mangorage.installer.core.Resilience;
+import org.mangorage.installer.core.metrics.Metrics;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 public final class Util {
 
-    public static File downloadTo(Maven maven, String version, String path) {
-        String URL = "%s/%s/%s/%s/%s-%s.jar".formatted(
+    public static String getDownloadURL(Maven maven, String version) {
+        return "%s/%s/%s/%s/%s-%s.jar".formatted(
                 maven.repository(),
                 maven.groupId()
                         .replace(
@@ -51,83 +55,125 @@ public final class Util {
                 maven.artifactId(),
                 version
         );
+    }
 
-        installUrl(URL, path, false);
-
-        return new File(path);
+    /**
+     * @return the amount of bytes downloaded
+     */
+    public static long downloadTo(Maven maven, String version, String path) {
+        return installUrl(getDownloadURL(maven, version), path, false);
     }
 
-    public static String getLastUpdated(String xmlContent) {
-        String tag = "<lastUpdated>";
-        String endTag = "</lastUpdated>";
+    public static String getMetadataURL(Maven maven) {
+        return maven.repository() + "/" + maven.groupId().replace(".", "/") + "/" + maven.artifactId() + "/maven-metadata.xml";
+    }
 
-        int start = xmlContent.indexOf(tag);
-        int end = xmlContent.indexOf(endTag);
+    public static Metadata downloadMetadata(Maven maven) {
+        return MetadataCache.fetch(getMetadataURL(maven), false);
+    }
 
-        if (start == -1 || end == -1 || start > end) {
-            throw new IllegalStateException("Can't find your precious <lastUpdated> tag, genius.");
-        }
+    public static CompletableFuture<Metadata> downloadMetadataAsync(Maven maven) {
+        return MetadataCache.fetchAsync(getMetadataURL(maven), false);
+    }
 
-        start += tag.length();
-        return xmlContent.substring(start, end).trim();
+    /**
+     * Same as {@link #downloadMetadata(Maven)}, but always revalidates against the repository.
+     */
+    public static Metadata refreshMetadata(Maven maven) {
+        return MetadataCache.fetch(getMetadataURL(maven), true);
     }
 
-    public static String downloadMetadata(Maven maven) {
-        String url = maven.repository() + "/" + maven.groupId().replace(".", "/") + "/" + maven.artifactId() + "/maven-metadata.xml";
-        LogUtil.println("Downloading Metadata from %s".formatted(url));
-        try {
-            return convertInputStreamToString(new URL(url).openStream());
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
+    public static CompletableFuture<Metadata> refreshMetadataAsync(Maven maven) {
+        return MetadataCache.fetchAsync(getMetadataURL(maven), true);
     }
 
-    public static String convertInputStreamToString(InputStream inputStream) {
-        String result;
-        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream))) {
-            // Use Java 8+ streams to collect lines into a single String
-            result = bufferedReader.lines().collect(Collectors.joining(System.lineSeparator()));
-            inputStream.close();
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }
-        return result;
+    /**
+     * @return the last cached metadata, regardless of age, or null if there is none
+     */
+    public static Metadata cachedMetadata(Maven maven) {
+        return MetadataCache.getCached(getMetadataURL(maven));
     }
 
-    public static String parseLatestVersion(String metadata, String versionRange) {
-        var versions = Version.parseMetadata(metadata);
-        var latest = Version.getLatestVersion(versions, versionRange);
+    public static String parseLatestVersion(Metadata metadata, String versionRange) {
+        var latest = VersionRange.of(versionRange).highest(VersionIndex.of(metadata));
         if (latest != null) {
             return latest.getOriginal();
         }
         return "NO VERSION FOUND";
     }
 
-    public static void installUrl(String url, String destinationPath, boolean resolveName) {
+    /**
+     * Downloads the url, resuming a previous attempt if there is one.
+     * The file only shows up at its destination once it is complete and matches the checksums the repository publishes.
+     *
+     * @return the amount of bytes downloaded
+     */
+    public static long installUrl(String url, String destinationPath, boolean resolveName) {
         try {
-            // Create a URL object
-            URL urlObject = new URL(url);
-
-            // Open a stream from the URL
-            try (InputStream inputStream = urlObject.openStream()) {
-                // Create the output path
-                String path = destinationPath;
-                if (resolveName) {
-                    Path file = Path.of(urlObject.toURI().getPath());
-                    path = path + "/" + file.getFileName();
-                }
-                Path destination = Path.of(path);
-                if (!Files.exists(destination.getParent())) Files.createDirectories(destination.getParent());
-                Files.copy(inputStream, destination, StandardCopyOption.REPLACE_EXISTING);
+            URI uri = new URI(url);
 
-                LogUtil.println("Installation complete. File saved to: " + destination);
-            } catch (URISyntaxException e) {
-                throw new RuntimeException(e);
+            // Create the output path
+            String path = destinationPath;
+            if (resolveName) {
+                Path file = Path.of(uri.getPath());
+                path = path + "/" + file.getFileName();
+            }
+            Path destination = Path.of(path);
+
+            final var expected = ArtifactStore.fetchChecksums(url).join();
+            if (expected.isEmpty()) LogUtil.println("No checksums published for " + url + ", can't verify it");
+
+            // Best mirror first, the others only if it fails
+            final var candidates = Mirrors.candidates(url);
+            IOException failure = null;
+            for (String candidate : candidates) {
+                for (int attempt = 1; ; attempt++) {
+                    final long start = System.nanoTime();
+                    try {
+                        final var result = FileDownloader.download(new URI(candidate), destination, expected);
+                        Mirrors.succeeded(candidate, System.nanoTime() - start, result.received());
+                        ArtifactStore.record(destination, result.checksums());
+
+                        LogUtil.println("Installation complete. File saved to: " + destination);
+                        return result.received();
+                    } catch (IOException e) {
+                        if (failure != null) e.addSuppressed(failure);
+                        failure = e;
+
+                        // Requests already got their retries, a transfer that broke off half way gets them here
+                        if (!(e instanceof FileDownloader.IncompleteDownloadException) || attempt >= Resilience.getMaxAttempts()) {
+                            Mirrors.failed(candidate);
+                            final boolean notCached = Mirrors.isLocal(candidate) && e instanceof NoSuchFileException;
+                            if (candidates.size() > 1 && !notCached) LogUtil.println("Failed to download %s: %s".formatted(candidate, e.getMessage()));
+                            break;
+                        }
+                        LogUtil.println(e.getMessage() + ", resuming");
+                        Metrics.count("download.retries");
+                    }
+                    Resilience.sleep(Resilience.getBackoff(attempt));
+                }
             }
-
-        } catch (IOException e) {
             LogUtil.println(url);
+            throw new IllegalStateException(failure);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
             throw new IllegalStateException(e);
         }
     }
+
+    /**
+     * Writes through a temp file next to the target, so readers never see half a file.
+     */
+    public static void writeAtomically(Path file, String content) throws IOException {
+        final var parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final var temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(temp, content);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
 }
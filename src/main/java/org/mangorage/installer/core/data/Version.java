@@ -1,53 +1,99 @@
 package org.mangorage.installer.core.data;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A version made of any amount of numeric components, optionally followed by a -qualifier.
+ * Components are compared numerically, missing ones count as 0,
+ * and a qualified version (1.0.0-SNAPSHOT) sorts before the release it belongs to (1.0.0).
+ * <p>
+ * Qualifiers are compared the way Maven does, split on '.', '-' and between letters and digits: numbers as numbers
+ * (beta.2 before beta.10), and alpha &lt; beta &lt; milestone &lt; rc &lt; snapshot &lt; ga, anything else after
+ * those, alphabetically.
+ */
 public final class Version implements Comparable<Version> {
-
-    public static List<Version> parseMetadata(String metadata) {
-        return Version.parseVersions(metadata)
-                .stream()
-                .filter(a -> a.matches("\\d+\\.\\d+\\.\\d+")) // Only x.y.z...
-                .map(Version::of)
-                .toList();
+    // a, b, m and cr are the short forms, ga, final and release mean it's the release itself
+    private static final Map<String, Integer> QUALIFIERS = Map.ofEntries(
+            Map.entry("alpha", 0), Map.entry("a", 0),
+            Map.entry("beta", 1), Map.entry("b", 1),
+            Map.entry("milestone", 2), Map.entry("m", 2),
+            Map.entry("rc", 3), Map.entry("cr", 3),
+            Map.entry("snapshot", 4),
+            Map.entry("ga", 5), Map.entry("final", 5), Map.entry("release", 5)
+    );
+    private static final int RELEASE = 5;
+    private static final int UNKNOWN = 6;
+
+    /**
+     * @return every version in the metadata we know how to compare, in document order
+     */
+    public static List<Version> parseMetadata(Metadata metadata) {
+        final List<Version> versions = new ArrayList<>(metadata.versions().size());
+        for (String version : metadata.versions()) {
+            final var parsed = tryParse(version);
+            if (parsed != null) versions.add(parsed);
+        }
+        return versions;
     }
 
     public static Version of(String version) {
-        String[] param = version.split("\\.");
-        if (param.length != 3) throw new IllegalStateException("Version needs to be major.minor.patch");
-        return new Version(Integer.parseInt(param[0]), Integer.parseInt(param[1]), Integer.parseInt(param[2]));
+        final var parsed = tryParse(version);
+        if (parsed == null) throw new IllegalStateException("Version needs to be major.minor.patch[-qualifier], got " + version);
+        return parsed;
     }
 
-    public static List<String> parseVersions(String input) {
-        List<String> matchingVersions = new ArrayList<>();
-
-        Pattern regexPattern = Pattern.compile("<version>(.*?)<\\/version>");
-        Matcher matcher = regexPattern.matcher(input);
-
-        while (matcher.find()) {
-            matchingVersions.add(matcher.group(1)); // Capture only the version part
+    /**
+     * @return null if the version isn't digits separated by dots, optionally followed by -qualifier
+     */
+    public static Version tryParse(String version) {
+        final int length = version.length();
+        int end = version.indexOf('-');
+        if (end == -1) end = length;
+        if (end == 0 || end == length - 1) return null;
+
+        int[] parts = new int[3];
+        int count = 0;
+        int value = 0;
+        boolean digit = false;
+        for (int i = 0; i < end; i++) {
+            final char c = version.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (value > (Integer.MAX_VALUE - 9) / 10) return null; // Not a version, that's a phone number
+                value = value * 10 + (c - '0');
+                digit = true;
+            } else if (c == '.' && digit) {
+                if (count == parts.length) parts = Arrays.copyOf(parts, count * 2);
+                parts[count++] = value;
+                value = 0;
+                digit = false;
+            } else {
+                return null;
+            }
         }
-
-        return matchingVersions;
+        if (!digit) return null;
+        if (count == parts.length) parts = Arrays.copyOf(parts, count + 1);
+        parts[count++] = value;
+
+        return new Version(
+                count == parts.length ? parts : Arrays.copyOf(parts, count),
+                end == length ? null : version.substring(end + 1),
+                version
+        );
     }
 
+    /**
+     * @see VersionRange
+     */
     public static Version getLatestVersion(List<Version> versions, String versionPattern) {
-        Pattern pattern = Pattern.compile(versionPattern.replace(".", "\\.").replace("+", ".*"));
-        return versions.stream()
-                .filter(version -> {
-                    Matcher matcher = pattern.matcher(version.toString());
-                    return matcher.matches();
-                })
-                .max(Version::compareTo)
-                .orElse(null);
-    }
-
-    private final int major;
-    private final int minor;
-    private final int patch;
+        return VersionRange.of(versionPattern).highest(VersionIndex.of(versions));
+    }
+
+    private final int[] parts;
+    private final String qualifier;
     private final String original;
 
     public Version(int major, int minor, int patch) {
@@ -55,9 +101,12 @@ public final class Version implements Comparable<Version> {
     }
 
     public Version(int major, int minor, int patch, String original) {
-        this.major = major;
-        this.minor = minor;
-        this.patch = patch;
+        this(new int[]{major, minor, patch}, null, original);
+    }
+
+    private Version(int[] parts, String qualifier, String original) {
+        this.parts = parts;
+        this.qualifier = qualifier;
         this.original = original;
     }
 
@@ -65,17 +114,125 @@ public final class Version implements Comparable<Version> {
         return original;
     }
 
-    public long getValue() {
-        return (major * 10000L) + (minor * 100L) + patch;
+    /**
+     * @return the numeric component at the index, 0 if the version doesn't have that many
+     */
+    public int getPart(int index) {
+        return index < parts.length ? parts[index] : 0;
+    }
+
+    public int getPartCount() {
+        return parts.length;
+    }
+
+    /**
+     * @return whatever followed the first '-', null for releases
+     */
+    public String getQualifier() {
+        return qualifier;
+    }
+
+    public boolean isRelease() {
+        return qualifier == null;
+    }
+
+    /**
+     * Compares only the first {@code prefix.length} numeric components against the prefix.
+     */
+    int comparePrefix(int[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            final int result = Integer.compare(getPart(i), prefix[i]);
+            if (result != 0) return result;
+        }
+        return 0;
     }
 
     @Override
     public String toString() {
-        return "%s.%s.%s".formatted(major, minor, patch);
+        return original;
     }
 
     @Override
     public int compareTo(Version o) {
-        return Long.compare(getValue(), o.getValue());
+        final int length = Math.max(parts.length, o.parts.length);
+        for (int i = 0; i < length; i++) {
+            final int result = Integer.compare(getPart(i), o.getPart(i));
+            if (result != 0) return result;
+        }
+        if (qualifier == null) return o.qualifier == null ? 0 : 1;
+        if (o.qualifier == null) return -1;
+        return compareQualifiers(qualifier, o.qualifier);
+    }
+
+    private static int compareQualifiers(String a, String b) {
+        final var tokensA = tokenize(a);
+        final var tokensB = tokenize(b);
+        final int length = Math.max(tokensA.size(), tokensB.size());
+        for (int i = 0; i < length; i++) {
+            final int result = compareTokens(i < tokensA.size() ? tokensA.get(i) : null, i < tokensB.size() ? tokensB.get(i) : null);
+            if (result != 0) return result;
+        }
+        return 0;
+    }
+
+    /**
+     * rc1-SNAPSHOT becomes rc, 1, snapshot.
+     */
+    private static List<String> tokenize(String qualifier) {
+        final List<String> tokens = new ArrayList<>();
+        final var value = qualifier.toLowerCase(Locale.ROOT);
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            final boolean end = i == value.length() || value.charAt(i) == '.' || value.charAt(i) == '-';
+            final boolean boundary = !end && i > start && isDigit(value.charAt(i)) != isDigit(value.charAt(i - 1));
+            if (end || boundary) {
+                if (i > start) tokens.add(value.substring(start, i));
+                start = end ? i + 1 : i;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * A missing token counts as the release, so beta &lt; beta.1 and rc-snapshot &lt; rc. Numbers sort after words.
+     */
+    private static int compareTokens(String a, String b) {
+        if (a == null && b == null) return 0;
+        if (a == null) return -compareTokens(b, null);
+        final boolean numeric = isDigit(a.charAt(0));
+        if (b == null) return numeric ? (isZero(a) ? 0 : 1) : Integer.compare(rank(a), RELEASE);
+        if (numeric != isDigit(b.charAt(0))) return numeric ? 1 : -1;
+        if (numeric) return compareNumbers(a, b);
+
+        final int result = Integer.compare(rank(a), rank(b));
+        return result != 0 || rank(a) != UNKNOWN ? result : a.compareTo(b); // cr is rc
+    }
+
+    private static int rank(String token) {
+        return QUALIFIERS.getOrDefault(token, UNKNOWN);
+    }
+
+    /**
+     * Without parsing them, a qualifier like a build timestamp doesn't fit in a long.
+     */
+    private static int compareNumbers(String a, String b) {
+        final var strippedA = stripZeros(a);
+        final var strippedB = stripZeros(b);
+        final int result = Integer.compare(strippedA.length(), strippedB.length());
+        return result != 0 ? result : strippedA.compareTo(strippedB);
+    }
+
+    private static String stripZeros(String number) {
+        int start = 0;
+        while (start < number.length() - 1 && number.charAt(start) == '0') start++;
+        return number.substring(start);
+    }
+
+    private static boolean isZero(String number) {
+        return stripZeros(number).equals("0");
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 }
@@ -0,0 +1,71 @@
+package org.mangorage.installer.core.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Versions sorted in ascending order, so ranges can binary search them.
+ */
+public final class VersionIndex {
+    public static VersionIndex of(Collection<Version> versions) {
+        final var sorted = versions.toArray(Version[]::new);
+        // Metadata is usually already in ascending order, which TimSort gets through in a single pass
+        Arrays.sort(sorted);
+        return new VersionIndex(sorted);
+    }
+
+    public static VersionIndex of(Metadata metadata) {
+        return of(Version.parseMetadata(metadata));
+    }
+
+    private final Version[] versions;
+
+    private VersionIndex(Version[] versions) {
+        this.versions = versions;
+    }
+
+    public int size() {
+        return versions.length;
+    }
+
+    public Version get(int index) {
+        return versions[index];
+    }
+
+    /**
+     * @return the first index whose version compares above the prefix, or {@link #size()} if there is none
+     */
+    int upperBound(int[] prefix) {
+        int low = 0;
+        int high = versions.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (versions[mid].comparePrefix(prefix) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of a version equal to the one given, or -1
+     */
+    int indexOf(Version version) {
+        int low = 0;
+        int high = versions.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int result = versions[mid].compareTo(version);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
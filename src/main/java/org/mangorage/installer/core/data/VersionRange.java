@@ -0,0 +1,70 @@
+package org.mangorage.installer.core.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A precompiled version range, as used by packages.json.
+ * <ul>
+ *     <li>{@code 1.2.3} or {@code 1.2.3-beta.1} matches exactly that version</li>
+ *     <li>{@code 1.2.+} matches any release starting with 1.2</li>
+ *     <li>{@code +} matches any release</li>
+ * </ul>
+ * Wildcards never match qualified versions (-SNAPSHOT, -beta...), those have to be asked for explicitly.
+ */
+public final class VersionRange {
+    private static final Map<String, VersionRange> CACHE = new ConcurrentHashMap<>();
+
+    public static VersionRange of(String range) {
+        return CACHE.computeIfAbsent(range, VersionRange::parse);
+    }
+
+    private static VersionRange parse(String range) {
+        if (range.endsWith("+")) {
+            // "1.2.+" and the older "1.2+" both mean anything under 1.2
+            var prefix = range.substring(0, range.length() - 1);
+            if (prefix.endsWith(".")) prefix = prefix.substring(0, prefix.length() - 1);
+            if (prefix.isEmpty()) return new VersionRange(new int[0], null);
+
+            final var version = Version.tryParse(prefix);
+            if (version == null || !version.isRelease()) throw new IllegalStateException("Invalid version range " + range);
+
+            final int[] parts = new int[version.getPartCount()];
+            for (int i = 0; i < parts.length; i++) parts[i] = version.getPart(i);
+            return new VersionRange(parts, null);
+        }
+
+        return new VersionRange(null, Version.of(range));
+    }
+
+    private final int[] prefix;
+    private final Version exact;
+
+    private VersionRange(int[] prefix, Version exact) {
+        this.prefix = prefix;
+        this.exact = exact;
+    }
+
+    public boolean matches(Version version) {
+        if (exact != null) return exact.compareTo(version) == 0;
+        return version.isRelease() && version.comparePrefix(prefix) == 0;
+    }
+
+    /**
+     * @return the highest version in the index within this range, or null if there is none
+     */
+    public Version highest(VersionIndex index) {
+        if (exact != null) {
+            final int found = index.indexOf(exact);
+            return found == -1 ? null : index.get(found);
+        }
+
+        // Everything under the prefix sits right below its upper bound, releases above their qualified versions
+        for (int i = index.upperBound(prefix) - 1; i >= 0; i--) {
+            final var version = index.get(i);
+            if (version.comparePrefix(prefix) != 0) return null;
+            if (version.isRelease()) return version;
+        }
+        return null;
+    }
+}
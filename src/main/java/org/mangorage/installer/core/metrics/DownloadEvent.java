@@ -0,0 +1,29 @@
+package org.mangorage.installer.core.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("org.mangorage.installer.Download")
+@Label("Download")
+@Category({"MangoRage", "Installer"})
+final class DownloadEvent extends jdk.jfr.Event {
+    @Label("URL")
+    String url;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+
+    @Label("Throughput")
+    @DataAmount(DataAmount.BYTES)
+    @Frequency
+    long bytesPerSecond;
+}
@@ -0,0 +1,77 @@
+package org.mangorage.installer.core.metrics;
+
+import org.mangorage.installer.core.data.HistogramReport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies in fixed buckets, cheap enough to record from any thread without locking.
+ */
+public final class Histogram {
+    private static final long[] BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MILLIS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public Histogram() {
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BOUNDS_MILLIS.length && nanos > TimeUnit.MILLISECONDS.toNanos(BOUNDS_MILLIS[bucket])) bucket++;
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(nanos);
+        min.accumulateAndGet(nanos, Math::min);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public HistogramReport report() {
+        final long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+
+        final Map<String, Long> byBound = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) byBound.put(i < BOUNDS_MILLIS.length ? Long.toString(BOUNDS_MILLIS[i]) : "+Inf", counts[i]);
+        }
+
+        return new HistogramReport(
+                total,
+                millis(sum.sum()),
+                total == 0 ? 0 : millis(min.get()),
+                total == 0 ? 0 : millis(max.get()),
+                percentile(counts, total, 0.50),
+                percentile(counts, total, 0.90),
+                percentile(counts, total, 0.99),
+                byBound
+        );
+    }
+
+    private double percentile(long[] counts, long total, double percentile) {
+        if (total == 0) return 0;
+        final long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            // The upper bound of the bucket, but never more than what was actually seen
+            if (seen >= rank) return i < BOUNDS_MILLIS.length ? Math.min(BOUNDS_MILLIS[i], millis(max.get())) : millis(max.get());
+        }
+        return millis(max.get());
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
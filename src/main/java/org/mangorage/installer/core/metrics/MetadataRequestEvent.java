@@ -0,0 +1,21 @@
+package org.mangorage.installer.core.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("org.mangorage.installer.MetadataRequest")
+@Label("Metadata Request")
+@Category({"MangoRage", "Installer"})
+final class MetadataRequestEvent extends jdk.jfr.Event {
+    @Label("URL")
+    String url;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+}
@@ -0,0 +1,214 @@
+package org.mangorage.installer.core.metrics;
+
+import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.data.DownloadReport;
+import org.mangorage.installer.core.data.HistogramReport;
+import org.mangorage.installer.core.data.RunReport;
+import org.mangorage.installer.core.data.SpanReport;
+import org.mangorage.installer.core.data.Util;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * Timings and counters of the current run, also emitted as JFR events, and written to installer/last-run.json at the end.
+ */
+public final class Metrics {
+    private static final Path REPORT_PATH = Path.of("installer/last-run.json");
+
+    private static final Instant STARTED = Instant.now();
+    private static final long START_NANOS = System.nanoTime();
+
+    private static final Queue<SpanReport> SPANS = new ConcurrentLinkedQueue<>();
+    private static final Queue<DownloadReport> DOWNLOADS = new ConcurrentLinkedQueue<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> LATENCIES = new ConcurrentHashMap<>();
+
+    private static String reported; // The outcome, once written
+
+    /**
+     * Times everything until it is closed, use with try-with-resources.
+     */
+    public static Span span(String name) {
+        return new Span(name);
+    }
+
+    /**
+     * Times the action as a span of its own.
+     */
+    public static void time(String name, Runnable action) {
+        final var span = span(name);
+        try {
+            action.run();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Times the action as a span of its own.
+     *
+     * @return what the action returned
+     */
+    public static <T, E extends Exception> T time(String name, Action<T, E> action) throws E {
+        final var span = span(name);
+        try {
+            return action.get();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * A supplier that may throw, so a span can be put around whatever it takes.
+     */
+    @FunctionalInterface
+    public interface Action<T, E extends Exception> {
+        T get() throws E;
+    }
+
+    public static void count(String counter) {
+        count(counter, 1);
+    }
+
+    public static void count(String counter, long amount) {
+        COUNTERS.computeIfAbsent(counter, c -> new LongAdder()).add(amount);
+    }
+
+    public static void recordLatency(String kind, long nanos) {
+        LATENCIES.computeIfAbsent(kind, k -> new Histogram()).record(nanos);
+    }
+
+    /**
+     * @param outcome fresh, not-modified, downloaded, fallback or failed
+     */
+    public static void recordMetadataRequest(String url, String outcome, long nanos) {
+        recordLatency("metadata", nanos);
+        recordLatency("metadata." + hostOf(url), nanos);
+        count("metadata." + outcome);
+
+        final var event = new MetadataRequestEvent();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.outcome = outcome;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    public static void recordDownload(String url, long bytes, long nanos) {
+        final long bytesPerSecond = nanos == 0 ? 0 : bytes * 1_000_000_000L / nanos;
+        recordLatency("download", nanos);
+        count("download.files");
+        count("download.bytes", bytes);
+        DOWNLOADS.add(new DownloadReport(url, bytes, TimeUnit.NANOSECONDS.toMillis(nanos), bytesPerSecond));
+
+        final var event = new DownloadEvent();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.bytes = bytes;
+            event.time = nanos;
+            event.bytesPerSecond = bytesPerSecond;
+            event.commit();
+        }
+    }
+
+    /**
+     * Only the first call of a run writes anything.
+     *
+     * @param outcome installed, launched, forked or failed
+     */
+    public static synchronized void writeReport(String outcome) {
+        if (reported != null) return;
+        reported = outcome;
+        write(outcome);
+        LogUtil.println("Run took %sms (%s)".formatted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - START_NANOS), outcome));
+    }
+
+    /**
+     * Writes the report again with everything recorded since, for work that goes on after the run was reported.
+     */
+    public static synchronized void updateReport() {
+        if (reported != null) write(reported);
+    }
+
+    private static void write(String outcome) {
+        final Map<String, Long> counters = new TreeMap<>();
+        COUNTERS.forEach((name, value) -> counters.put(name, value.sum()));
+        final Map<String, HistogramReport> latencies = new TreeMap<>();
+        LATENCIES.forEach((name, histogram) -> latencies.put(name, histogram.report()));
+
+        final List<SpanReport> spans = new ArrayList<>(SPANS);
+        spans.sort(Comparator.comparingLong(SpanReport::startMillis));
+        final List<DownloadReport> downloads = new ArrayList<>(DOWNLOADS);
+        downloads.sort(Comparator.comparingLong(DownloadReport::millis).reversed());
+
+        final var report = new RunReport(
+                STARTED.toString(),
+                Instant.now().toString(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - START_NANOS),
+                outcome,
+                spans,
+                counters,
+                latencies,
+                downloads
+        );
+
+        try {
+            Util.writeAtomically(REPORT_PATH, GSON.toJson(report));
+        } catch (IOException e) {
+            LogUtil.println("Failed to write last-run.json: " + e.getMessage());
+        }
+    }
+
+    private static String hostOf(String url) {
+        try {
+            final var host = URI.create(url).getHost();
+            return host == null ? "local" : host;
+        } catch (IllegalArgumentException e) {
+            return "local";
+        }
+    }
+
+    public static final class Span implements AutoCloseable {
+        private final String name;
+        private final long start = System.nanoTime();
+        private final PhaseEvent event = new PhaseEvent();
+
+        private Span(String name) {
+            this.name = name;
+            event.begin();
+        }
+
+        @Override
+        public void close() {
+            final long end = System.nanoTime();
+            SPANS.add(new SpanReport(
+                    name,
+                    Thread.currentThread().getName(),
+                    TimeUnit.NANOSECONDS.toMillis(start - START_NANOS),
+                    TimeUnit.NANOSECONDS.toMillis(end - start)
+            ));
+            event.end();
+            if (event.shouldCommit()) {
+                event.name = name;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package org.mangorage.installer.core.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.mangorage.installer.Phase")
+@Label("Installer Phase")
+@Category({"MangoRage", "Installer"})
+@Description("A timed phase of an installer run")
+final class PhaseEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    String name;
+}
@@ -0,0 +1,136 @@
+package org.mangorage.installer.core.tasks;
+
+import org.mangorage.installer.core.LogUtil;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits until whatever ran before us is out of the way, instead of sleeping for a fixed amount of time.
+ */
+public final class AwaitReadinessTask {
+    private static final Path LOCK_PATH = Path.of("installer/installer.lock");
+    private static final Path BOOT_PATH = Path.of("boot");
+    private static final long POLL_MILLIS = 100;
+
+    // Held until the JVM exits, the next installer waits on it
+    private static FileLock installLock;
+
+    /**
+     * @param parentPid the process to wait for, or null
+     * @param maxWait   how long we wait on each of the checks before going ahead anyway
+     */
+    public static void awaitReadiness(Long parentPid, Duration maxWait) {
+        final long start = System.nanoTime();
+
+        if (parentPid != null) awaitExit(parentPid, maxWait);
+        acquireInstallLock(maxWait);
+        awaitJarsReleased(maxWait);
+
+        LogUtil.println("Ready after %sms".formatted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    private static void awaitExit(long pid, Duration maxWait) {
+        final var process = ProcessHandle.of(pid);
+        if (process.isEmpty() || !process.get().isAlive()) return;
+
+        LogUtil.println("Waiting for process " + pid + " to exit...");
+        try {
+            process.get().onExit().get(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LogUtil.println("Process " + pid + " still running after " + maxWait.toSeconds() + "s, continuing anyway");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Only one installer (and whatever it launched) may own the install directory at a time.
+     */
+    private static void acquireInstallLock(Duration maxWait) {
+        try {
+            Files.createDirectories(LOCK_PATH.getParent());
+            final var channel = FileChannel.open(LOCK_PATH, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            final long deadline = System.nanoTime() + maxWait.toNanos();
+
+            FileLock lock = channel.tryLock();
+            if (lock == null) LogUtil.println("Waiting for the previous installer to release " + LOCK_PATH + "...");
+            while (lock == null && System.nanoTime() < deadline) {
+                Thread.sleep(POLL_MILLIS);
+                lock = channel.tryLock();
+            }
+
+            if (lock == null) {
+                LogUtil.println("Install directory still locked after " + maxWait.toSeconds() + "s, continuing anyway");
+                channel.close();
+                return;
+            }
+            installLock = lock;
+        } catch (IOException e) {
+            LogUtil.println("Failed to lock the install directory: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Some platforms won't let us replace a jar another process still has open.
+     */
+    private static void awaitJarsReleased(Duration maxWait) {
+        final List<Path> jars = new ArrayList<>();
+        if (Files.isDirectory(BOOT_PATH)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(BOOT_PATH, "*.jar")) {
+                stream.forEach(jars::add);
+            } catch (IOException e) {
+                return;
+            }
+        }
+
+        final long deadline = System.nanoTime() + maxWait.toNanos();
+        for (Path jar : jars) {
+            boolean logged = false;
+            while (!isReleased(jar)) {
+                if (System.nanoTime() > deadline) {
+                    LogUtil.println(jar + " is still in use after " + maxWait.toSeconds() + "s, continuing anyway");
+                    return;
+                }
+                if (!logged) {
+                    LogUtil.println("Waiting for " + jar + " to be released...");
+                    logged = true;
+                }
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private static boolean isReleased(Path jar) {
+        try (var channel = FileChannel.open(jar, StandardOpenOption.WRITE); var lock = channel.tryLock()) {
+            return lock != null;
+        } catch (AccessDeniedException e) {
+            return true; // Read-only, not something another process is holding
+        } catch (IOException e) {
+            return !Files.exists(jar);
+        }
+    }
+}
@@ -3,23 +3,32 @@ package org.mangorage.installer.core.tasks;
 import org.mangorage.installer.core.LogUtil;
 import org.mangorage.installer.core.data.Maven;
 import org.mangorage.installer.core.data.Util;
+import org.mangorage.installer.core.metrics.Metrics;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public final class FetchPackagesTask {
-    private static final ExecutorService TASKS = Executors.newCachedThreadPool();
-
     public static String fetchLatestVersion(Maven maven, String defaultVersion) {
-        Future<String> future = TASKS.submit(() -> Util.downloadMetadata(maven));
-        try {
-            return Util.parseLatestVersion(future.get(10, TimeUnit.SECONDS), defaultVersion);
-        } catch (Exception e) {
-            LogUtil.println("Failed to get metadata, using default version: " + defaultVersion);
-            return defaultVersion;
-        }
+        return fetchLatestVersionAsync(maven, defaultVersion).join();
+    }
+
+    public static CompletableFuture<String> fetchLatestVersionAsync(Maven maven, String defaultVersion) {
+        // Timeouts and retries are up to Http, this only decides what to do once it gave up
+        return Util.downloadMetadataAsync(maven)
+                .thenApply(metadata -> Util.parseLatestVersion(metadata, defaultVersion))
+                .exceptionally(e -> {
+                    final var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    final var cached = Util.cachedMetadata(maven);
+                    if (cached != null) {
+                        LogUtil.println("Failed to get metadata for %s (%s), using cached metadata".formatted(maven.artifactId(), cause.getMessage()));
+                        Metrics.count("metadata.staleVersion");
+                        return Util.parseLatestVersion(cached, defaultVersion);
+                    }
+                    LogUtil.println("Failed to get metadata for %s (%s), using default version: %s".formatted(maven.artifactId(), cause.getMessage(), defaultVersion));
+                    Metrics.count("metadata.defaultVersion");
+                    return defaultVersion;
+                });
     }
 
 }
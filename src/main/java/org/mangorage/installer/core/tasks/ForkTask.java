@@ -0,0 +1,156 @@
+package org.mangorage.installer.core.tasks;
+
+import org.mangorage.installer.core.JarIndex;
+import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launches the application in its own JVM, with its own options, and an AppCDS archive of whatever it loads.
+ * <p>
+ * The archive is tied to installed.json: the first launch after a package or library changed trains it through
+ * {@code -XX:ArchiveClassesAtExit}, and every launch after that maps it with {@code -XX:SharedArchiveFile}.
+ */
+public final class ForkTask {
+    private static final Path CDS_PATH = Path.of("installer/cds");
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Never returns, the installer exits with the application.
+     *
+     * @param jvmOptions      passed to the child JVM as is
+     * @param trainingSeconds if there is no archive yet, run the application this long on its own just to create one,
+     *                        0 to have the real launch create it on exit instead
+     */
+    public static void forkJar(List<String> jvmOptions, int trainingSeconds, String[] args) {
+        LogUtil.println("Attempting to launch in a new JVM....");
+        File bootJar = new File("boot/boot.jar");
+        String mainClass = JarTask.findMainClass(bootJar);
+        JarIndex.save();
+
+        if (mainClass.isEmpty()) {
+            LogUtil.println("Could not find Valid Launch File from List of Jars...");
+            return;
+        }
+
+        final var archive = getArchive();
+        if (archive != null && !Files.exists(archive) && trainingSeconds > 0) {
+            train(command(jvmOptions, "-XX:ArchiveClassesAtExit=" + archive, mainClass, args), archive, trainingSeconds);
+        }
+
+        final String cdsOption;
+        if (archive == null) {
+            cdsOption = null;
+        } else if (Files.exists(archive)) {
+            LogUtil.println("Using CDS archive " + archive);
+            cdsOption = "-XX:SharedArchiveFile=" + archive;
+        } else {
+            LogUtil.println("No CDS archive for this install yet, creating " + archive + " when the application exits");
+            cdsOption = "-XX:ArchiveClassesAtExit=" + archive;
+        }
+
+        Metrics.writeReport("forked");
+        final Process process;
+        try {
+            process = new ProcessBuilder(command(jvmOptions, cdsOption, mainClass, args)).inheritIO().start();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to start the application", e);
+        }
+
+        // Whatever makes the installer exit (an update, a signal) stops the application properly, which also writes the archive
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(process), "stop-application"));
+
+        try {
+            final int code = process.waitFor();
+            LogUtil.println("Application exited with code " + code);
+            System.exit(code);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<String> command(List<String> jvmOptions, String cdsOption, String mainClass, String[] args) {
+        final List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        if (cdsOption != null) {
+            command.add(cdsOption);
+            command.add("-Xshare:auto"); // A stale or broken archive is a warning, not a failed launch
+        }
+        command.add("--module-path");
+        command.add("boot");
+        command.add("--module");
+        command.add(JarTask.BOOTSTRAP_MODULE + "/" + mainClass);
+        command.addAll(Arrays.asList(args));
+        return command;
+    }
+
+    private static void train(List<String> command, Path archive, int trainingSeconds) {
+        LogUtil.println("Creating CDS archive " + archive + ", running the application for " + trainingSeconds + "s...");
+        final long start = System.nanoTime();
+        try {
+            final var process = new ProcessBuilder(command).inheritIO().start();
+            if (!process.waitFor(trainingSeconds, TimeUnit.SECONDS)) stop(process);
+        } catch (IOException e) {
+            LogUtil.println("Failed to run the CDS training pass: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+
+        if (Files.exists(archive)) {
+            LogUtil.println("Created CDS archive in %sms".formatted(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } else {
+            LogUtil.println("The CDS training pass didn't produce an archive, launching without one");
+        }
+    }
+
+    private static void stop(Process process) {
+        if (!process.isAlive()) return;
+        process.destroy(); // SIGTERM, shutdown hooks run and the JVM writes its archive
+        try {
+            if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LogUtil.println("Application still running after " + STOP_TIMEOUT_SECONDS + "s, killing it");
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return where the archive for the current installed.json goes, null if there is no installed.json to tie it to
+     */
+    private static Path getArchive() {
+        final var hash = LockfileTask.hashLockfile();
+        if (hash == null) {
+            LogUtil.println("No installed.json, launching without a CDS archive");
+            return null;
+        }
+
+        final var name = "app-" + hash.substring(0, 16) + ".jsa";
+        try {
+            Files.createDirectories(CDS_PATH);
+            // Archives of previous installs won't ever match again
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(CDS_PATH, "app-*.jsa")) {
+                for (Path old : stream) {
+                    if (!old.getFileName().toString().equals(name)) Files.deleteIfExists(old);
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.println("Failed to prepare " + CDS_PATH + ": " + e.getMessage());
+        }
+        return CDS_PATH.resolve(name);
+    }
+}
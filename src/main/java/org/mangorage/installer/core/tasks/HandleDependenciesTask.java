@@ -1,47 +1,149 @@
 package org.mangorage.installer.core.tasks;
 
+import org.mangorage.installer.core.ArtifactStore;
+import org.mangorage.installer.core.DependencyGraph;
+import org.mangorage.installer.core.DownloadScheduler;
+import org.mangorage.installer.core.LazyLibraries;
 import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.PomResolver;
 import org.mangorage.installer.core.data.Dependency;
 import org.mangorage.installer.core.data.Maven;
 import org.mangorage.installer.core.data.Package;
 import org.mangorage.installer.core.data.Util;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public final class HandleDependenciesTask {
     private static final Path LIBRARIES_PATH = Path.of("libraries/").toAbsolutePath();
+    private static final Map<String, ReentrantLock> OUTPUT_LOCKS = new ConcurrentHashMap<>();
 
-    public static void handleDependencies(List<Dependency> dependencies) {
-        LogUtil.println("Handling dependencies...");
-        LogUtil.println("Skipping dependencies already present...");
+    /**
+     * Re-hashes everything in libraries/ and deletes whatever doesn't match, so it gets downloaded again.
+     */
+    public static void verifyLibraries() {
+        ArtifactStore.verifyAll(LIBRARIES_PATH);
+    }
+
+    /**
+     * Takes a package jar and where that package stands in packages.json, adds what it declares to the graph
+     * and returns it.
+     */
+    @FunctionalInterface
+    public interface DependencyQueue {
+        List<Dependency> queue(int order, File jar);
+    }
+
+    /**
+     * For every package jar handed to it, reads its dependencies and queues the download of whatever became
+     * the version to install right away, while other packages may still be downloading.
+     * <p>
+     * A version that gets beaten by a package coming in later may already be downloading by then, that's the price
+     * of not waiting on every package. Call {@link DownloadScheduler#await()} once every jar went through it,
+     * then {@link #removeReplaced(DependencyGraph)}.
+     */
+    public static DependencyQueue dependencyQueue(DownloadScheduler scheduler, DependencyGraph graph) {
+        return dependencyQueue(scheduler, graph, null);
+    }
 
+    /**
+     * @param resolver also pulls in whatever the declared dependencies depend on, may be null
+     */
+    public static DependencyQueue dependencyQueue(DownloadScheduler scheduler, DependencyGraph graph, PomResolver resolver) {
+        LogUtil.println("Handling dependencies as packages come in...");
+        return (order, jar) -> {
+            final var declared = ExtractDependenciesTask.extractDependencies(jar);
+            final var dependencies = resolver == null ? declared : resolver.resolve(declared);
+            queueDependencies(graph.add(order, jar.getName(), dependencies), graph, scheduler);
+            return dependencies;
+        };
+    }
+
+    /**
+     * Only takes what the graph resolved to, every dependency in there is new or won back its group:artifact.
+     */
+    private static void queueDependencies(List<Dependency> dependencies, DependencyGraph graph, DownloadScheduler scheduler) {
         for (Dependency dependency : dependencies) {
-            dependency.download(LIBRARIES_PATH);
+            // The launched application may ask for it before the scheduler gets to it
+            final var library = LazyLibraries.isEnabled() ? LazyLibraries.track(dependency, LIBRARIES_PATH, graph) : null;
+            scheduler.submit(dependency.url() + dependency.output(), () -> {
+                // Two downloads to the same file would trample each other, the later one waits
+                final var lock = OUTPUT_LOCKS.computeIfAbsent(dependency.output(), output -> new ReentrantLock());
+                lock.lock();
+                try {
+                    if (!graph.isResolved(dependency)) return 0L; // Lost against another version already
+                    return library != null ? library.fetch() : dependency.install(LIBRARIES_PATH);
+                } catch (RuntimeException e) {
+                    if (graph.isResolved(dependency)) throw e;
+                    return 0L; // Lost against another version in the meantime, we don't need it anyway
+                } finally {
+                    lock.unlock();
+                }
+            });
         }
     }
 
-    public static File handlePackage(Package dependency, Map<String, String> installedVersions, Map<String, String> newVersions, String destination) {
-        Maven maven = new Maven(dependency.url(), dependency.group(), dependency.artifact());
-        String latestVersion = FetchPackagesTask.fetchLatestVersion(maven, dependency.version());
-        newVersions.put(dependency.target(), latestVersion);
+    /**
+     * Deletes the versions that were downloaded before another version beat them.
+     */
+    public static void removeReplaced(DependencyGraph graph) {
+        final Set<String> needed = new HashSet<>();
+        graph.resolved().forEach(dependency -> needed.add(dependency.output()));
 
-        if (latestVersion.equals(installedVersions.get(dependency.target()))) {
-            return new File(destination, dependency.target());
+        final List<Path> replaced = new ArrayList<>();
+        for (Dependency dependency : graph.replaced()) {
+            if (!needed.contains(dependency.output())) replaced.add(getLibraryPath(dependency));
         }
+        removeReplaced(replaced);
+    }
 
-        LogUtil.println("Installing/Updating " + dependency.target());
-
+    /**
+     * Deletes library files nothing uses anymore, and forgets their records.
+     */
+    public static void removeReplaced(List<Path> replaced) {
+        for (Path path : replaced) {
+            try {
+                if (Files.deleteIfExists(path)) LogUtil.println("Removed " + path + ", replaced by another version");
+                ArtifactStore.forget(path);
+            } catch (IOException e) {
+                LogUtil.println("Failed to remove " + path + ": " + e.getMessage());
+            }
+        }
+    }
 
-        return Util.downloadTo(maven, latestVersion, destination + "/" + dependency.target());
+    public static Path getLibraryPath(Dependency dependency) {
+        return LIBRARIES_PATH.resolve(dependency.output());
     }
 
-    private static List<File> getExistingLibraryJars() {
-        return Optional.ofNullable(LIBRARIES_PATH.toFile().listFiles(file -> file.getName().endsWith(".jar")))
-                .map(Arrays::asList).orElse(List.of());
+    /**
+     * Schedules the download of the package if the resolved version isn't the installed one.
+     *
+     * @return the package jar, once it is in place
+     */
+    public static CompletableFuture<File> handlePackage(Package dependency, String latestVersion, Map<String, String> installedVersions, String destination, DownloadScheduler scheduler) {
+        final var file = new File(destination, dependency.target());
+
+        Maven maven = dependency.getMaven();
+        if (latestVersion.equals(installedVersions.get(dependency.target()))) {
+            if (ArtifactStore.check(file.toPath(), Util.getDownloadURL(maven, latestVersion))) {
+                return CompletableFuture.completedFuture(file);
+            }
+            LogUtil.println(dependency.target() + " is missing or damaged, downloading it again");
+        }
+
+        LogUtil.println("Installing/Updating " + dependency.target());
+
+        return scheduler.submit(Util.getDownloadURL(maven, latestVersion), () -> Util.downloadTo(maven, latestVersion, destination + "/" + dependency.target()))
+                .thenApply(bytes -> file);
     }
 }
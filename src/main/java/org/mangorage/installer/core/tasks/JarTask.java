@@ -1,6 +1,9 @@
 package org.mangorage.installer.core.tasks;
 
+import org.mangorage.installer.core.JarIndex;
+import org.mangorage.installer.core.LazyLibraries;
 import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.metrics.Metrics;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,59 +15,146 @@ import java.net.URLClassLoader;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
+import java.util.concurrent.TimeUnit;
 
 public final class JarTask {
     public static String findMainClass(File file) {
-        try (JarFile jar = new JarFile(file)) {
-            Manifest manifest = jar.getManifest();
-            if (manifest != null) {
-                String mainClass = manifest.getMainAttributes().getValue("Main-Class");
-                if (mainClass != null) {
-                    LogUtil.println("Found Main-Class: " + mainClass);
-                    return mainClass;
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to read JAR manifest from " + file.getName(), e);
+        final var mainClass = JarIndex.get(file).mainClass();
+        if (mainClass != null) {
+            LogUtil.println("Found Main-Class: " + mainClass);
+            return mainClass;
         }
         return "";
     }
 
+    static final String BOOTSTRAP_MODULE = "org.mangorage.bootstrap";
+    private static final String SHUTDOWN_METHOD = "shutdown";
+
+    private static volatile Launched current;
+
+    /**
+     * A running generation of the application, in its own layer and class loader.
+     */
+    private record Launched(String mainClass, URLClassLoader classLoader, ModuleLayer layer) {}
+
     public static void launchJar(List<File> jars, String[] args) {
         LogUtil.println("Attempting to launch....");
+        try {
+            final var launched = Metrics.time("layer", JarTask::createLayer);
+            if (launched == null) return;
+            current = launched;
+            Metrics.writeReport("launched");
+
+            Thread.currentThread().setContextClassLoader(launched.classLoader());
+            callMain(launched.mainClass(), args, launched.layer().findModule(BOOTSTRAP_MODULE).get());
+        } catch (Throwable throwable) {
+            throwable.printStackTrace();
+        }
+    }
+
+    private static Launched createLayer() throws IOException {
         File bootJar = new File("boot/boot.jar");
         String mainClass = findMainClass(bootJar);
 
         if (mainClass.isEmpty()) {
             LogUtil.println("Could not find Valid Launch File from List of Jars...");
-            return;
+            return null;
         }
 
         final var moduleCfg = Configuration.resolve(
-                ModuleFinder.of(
+                JarIndex.moduleFinder(
                         Path.of("boot")
                 ),
                 List.of(
                         ModuleLayer.boot().configuration()
                 ),
                 ModuleFinder.of(),
-                Set.of("org.mangorage.bootstrap")
+                Set.of(BOOTSTRAP_MODULE)
         );
 
+        // Parented to the installer's loader, never to a previous generation, so that one can be collected
+        final var parent = JarTask.class.getClassLoader();
+        final var moduleCl = LazyLibraries.isEnabled()
+                ? LazyLibraries.createClassLoader(bootJar, parent)
+                : new URLClassLoader(new URL[]{bootJar.toURI().toURL()}, parent);
+        final var moduleLayerController = ModuleLayer.defineModules(moduleCfg, List.of(ModuleLayer.boot()), s -> moduleCl);
+        if (LazyLibraries.isEnabled()) {
+            // The libraries end up in the loader's unnamed module, which a named module only reads when told to
+            moduleLayerController.layer().findModule(BOOTSTRAP_MODULE).ifPresent(module -> moduleLayerController.addReads(module, moduleCl.getUnnamedModule()));
+        }
+        JarIndex.save();
+        return new Launched(mainClass, moduleCl, moduleLayerController.layer());
+    }
+
+    public static boolean isLaunched() {
+        return current != null;
+    }
+
+    /**
+     * @return whether the running application can be swapped for a new one without restarting the JVM,
+     * which takes a {@code public static void shutdown()} on its main class
+     */
+    public static boolean canReload() {
+        final var launched = current;
+        return launched != null && findShutdown(launched) != null;
+    }
+
+    private static Method findShutdown(Launched launched) {
         try {
-            final var moduleCl = new URLClassLoader(new URL[]{bootJar.toURI().toURL()}, Thread.currentThread().getContextClassLoader());
+            final var clazz = Class.forName(launched.mainClass(), false, launched.layer().findLoader(BOOTSTRAP_MODULE));
+            final var method = clazz.getMethod(SHUTDOWN_METHOD);
+            return java.lang.reflect.Modifier.isStatic(method.getModifiers()) ? method : null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
 
-            final var moduleLayerController = ModuleLayer.defineModules(moduleCfg, List.of(ModuleLayer.boot()), s -> moduleCl);
-            final var moduleLayer = moduleLayerController.layer();
+    /**
+     * Starts whatever is in boot/ now in a fresh layer, after the running application had its {@code shutdown()} called.
+     * The new main runs on its own thread, the old layer is left for the GC once its threads are gone.
+     *
+     * @throws IllegalStateException if the new layer can't be created, or the old application fails to shut down
+     */
+    public static synchronized void reload(String[] args) {
+        final var previous = current;
+        if (previous == null) throw new IllegalStateException("Nothing was launched yet");
+        final var shutdown = findShutdown(previous);
+        if (shutdown == null) throw new IllegalStateException(previous.mainClass() + " has no static shutdown(), can't reload it");
 
-            Thread.currentThread().setContextClassLoader(moduleCl);
+        final long start = System.nanoTime();
+        final Launched next;
+        try {
+            next = createLayer();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create the new layer", e);
+        }
+        if (next == null) throw new IllegalStateException("No main class in the updated boot jar");
 
-            callMain(mainClass, args, moduleLayer.findModule("org.mangorage.bootstrap").get());
-        } catch (Throwable throwable) {
-            throwable.printStackTrace();
+        // Everything up to here happened while the old generation kept running
+        LogUtil.println("Handing off from " + previous.mainClass() + "...");
+        final long shutdownStart = System.nanoTime();
+        try {
+            shutdown.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Shutdown of the running application failed", e);
+        }
+        final long shutdownTime = System.nanoTime() - shutdownStart;
+
+        current = next;
+        try {
+            previous.classLoader().close();
+        } catch (IOException e) {
+            LogUtil.println("Failed to close the previous class loader: " + e.getMessage());
         }
+
+        final var thread = new Thread(() -> callMain(next.mainClass(), args, next.layer().findModule(BOOTSTRAP_MODULE).get()), "bootstrap-reload");
+        thread.setContextClassLoader(next.classLoader());
+        thread.start();
+
+        LogUtil.println("Reloaded in %sms, %sms of it in shutdown()".formatted(
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                TimeUnit.NANOSECONDS.toMillis(shutdownTime)
+        ));
     }
 
     public static void callMain(String className, String[] args, Module module) {
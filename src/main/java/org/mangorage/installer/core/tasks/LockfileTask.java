@@ -0,0 +1,141 @@
+package org.mangorage.installer.core.tasks;
+
+import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.Mirrors;
+import org.mangorage.installer.core.data.ArtifactRecord;
+import org.mangorage.installer.core.data.Installed;
+import org.mangorage.installer.core.data.InstalledPackage;
+import org.mangorage.installer.core.data.Packages;
+import org.mangorage.installer.core.data.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * Reads and writes installer/installed.json, and decides whether it is good enough to launch straight from it.
+ */
+public final class LockfileTask {
+    private static final Path LOCKFILE_PATH = Path.of("installer/installed.json");
+    private static final Path PACKAGES_PATH = Path.of("installer/packages.json");
+
+    public record WarmStart(Packages packages, List<File> jars, List<File> libraries) {}
+
+    /**
+     * @return the packages and their jars if installed.json was resolved from the current packages.json
+     * and every file it lists is still exactly as it was installed, null if a full install is needed
+     */
+    public static WarmStart tryWarmStart() {
+        final var installed = read();
+        if (installed == null || installed.packagesHash() == null || installed.libraries() == null) return null;
+
+        final byte[] packagesJson;
+        try {
+            packagesJson = Files.readAllBytes(PACKAGES_PATH);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!installed.packagesHash().equals(hash(packagesJson))) {
+            LogUtil.println("packages.json changed since the last install");
+            return null;
+        }
+
+        final List<File> jars = new ArrayList<>();
+        for (InstalledPackage installedPackage : installed.installed()) {
+            if (installedPackage.file() == null || !isIntact(installedPackage.file())) return null;
+            jars.add(Path.of(installedPackage.file().path()).toFile());
+        }
+        final List<File> libraries = new ArrayList<>();
+        for (ArtifactRecord library : installed.libraries()) {
+            if (!isIntact(library)) return null;
+            libraries.add(Path.of(library.path()).toFile());
+        }
+
+        LogUtil.println("Everything matches installed.json, skipping resolution");
+        final var packages = GSON.fromJson(new String(packagesJson, StandardCharsets.UTF_8), Packages.class);
+        Mirrors.register(packages);
+        return new WarmStart(packages, jars, libraries);
+    }
+
+    private static boolean isIntact(ArtifactRecord record) {
+        if (record == null) return false;
+        final var path = Path.of(record.path());
+        try {
+            final boolean intact = Files.size(path) == record.size() && Files.getLastModifiedTime(path).toMillis() == record.modified();
+            if (!intact) LogUtil.println(record.path() + " changed since the last install");
+            return intact;
+        } catch (IOException e) {
+            LogUtil.println(record.path() + " is missing");
+            return false;
+        }
+    }
+
+    /**
+     * @return null if there is no installed.json
+     */
+    public static Installed read() {
+        if (!Files.exists(LOCKFILE_PATH)) return null;
+        try (Reader reader = Files.newBufferedReader(LOCKFILE_PATH)) {
+            return GSON.fromJson(reader, Installed.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading installed.json", e);
+        }
+    }
+
+    public static void write(Installed installed) {
+        try {
+            Util.writeAtomically(LOCKFILE_PATH, GSON.toJson(installed));
+        } catch (IOException e) {
+            throw new RuntimeException("Error updating installed.json", e);
+        }
+    }
+
+    /**
+     * Makes the next start resolve everything again, used when we know there's something newer out there.
+     */
+    public static void invalidate() {
+        final var installed = read();
+        if (installed == null || installed.packagesHash() == null) return;
+        write(new Installed(null, installed.installed(), installed.libraries()));
+    }
+
+    /**
+     * @return the SHA-256 of packages.json as it is right now, null if it can't be read
+     */
+    public static String hashPackages() {
+        try {
+            return hash(Files.readAllBytes(PACKAGES_PATH));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the SHA-256 of installed.json as it is right now, null if there is none
+     */
+    public static String hashLockfile() {
+        try {
+            return hash(Files.readAllBytes(LOCKFILE_PATH));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,10 +1,11 @@
 package org.mangorage.installer.core.tasks;
 
+import org.mangorage.installer.core.DownloadScheduler;
 import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.Mirrors;
+import org.mangorage.installer.core.ProcessedPackage;
 import org.mangorage.installer.core.UpdateChecker;
-import org.mangorage.installer.core.data.Installed;
 import org.mangorage.installer.core.data.InstalledPackage;
-import org.mangorage.installer.core.data.Package;
 import org.mangorage.installer.core.data.Packages;
 
 import java.io.File;
@@ -14,30 +15,49 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 import static org.mangorage.installer.Installer.GSON;
 
 public final class ProcessPackagesTask {
-    public static List<File> processPackages(final boolean checkUpdates, final int updateFreq) {
+    /**
+     * @param onInstalled called with each package jar as soon as it is in place, from whichever thread put it there,
+     *                    returns the dependencies it declares
+     */
+    public static List<ProcessedPackage> processPackages(final boolean checkUpdates, final int updateFreq, final DownloadScheduler scheduler, final HandleDependenciesTask.DependencyQueue onInstalled) {
         LogUtil.println("Processing installer/packages.json");
         File file = new File("installer/packages.json");
         if (!file.exists()) throw new IllegalStateException("packages.json not found!");
 
         Map<String, String> installedVersions = readInstalledVersions();
-        List<File> results = new ArrayList<>();
+        List<ProcessedPackage> results = new ArrayList<>();
 
         try (var reader = new FileReader(file)) {
             Packages packages = GSON.fromJson(reader, Packages.class);
+            Mirrors.register(packages);
             if (checkUpdates) UpdateChecker.startChecker(packages, updateFreq);
-            Map<String, String> newVersions = new HashMap<>();
 
-            for (Package dependency : packages.packages()) {
-                File jar = HandleDependenciesTask.handlePackage(dependency, installedVersions, newVersions, dependency.getDestination(packages.destination()));
-                if (jar != null) results.add(jar);
+            // Every package goes resolve -> download -> onInstalled on its own, so we only wait on the slowest one
+            List<CompletableFuture<ProcessedPackage>> installs = new ArrayList<>();
+            for (int i = 0; i < packages.packages().size(); i++) {
+                final int order = i;
+                final var dependency = packages.packages().get(i);
+                final var destination = dependency.getDestination(packages.destination());
+                installs.add(FetchPackagesTask.fetchLatestVersionAsync(dependency.getMaven(), dependency.version())
+                        .thenCompose(latestVersion -> HandleDependenciesTask.handlePackage(dependency, latestVersion, installedVersions, destination, scheduler)
+                                .thenApply(jar -> new ProcessedPackage(dependency.target(), latestVersion, jar, onInstalled.queue(order, jar)))));
             }
 
-            UpdateInstalledVersionsTask.updateInstalledVersions(newVersions);
+            for (CompletableFuture<ProcessedPackage> install : installs) {
+                try {
+                    results.add(install.join());
+                } catch (CompletionException e) {
+                    scheduler.await(); // Reports every failed download at once, if that's what went wrong
+                    throw e;
+                }
+            }
         } catch (IOException e) {
             throw new RuntimeException("Error processing packages.json", e);
         }
@@ -46,14 +66,9 @@ public final class ProcessPackagesTask {
     }
 
     private static Map<String, String> readInstalledVersions() {
-        File installedFile = new File("installer/installed.json");
-        if (!installedFile.exists()) return new HashMap<>();
-
-        try (var reader = new FileReader(installedFile)) {
-            return GSON.fromJson(reader, Installed.class).installed()
-                    .stream().collect(Collectors.toMap(InstalledPackage::id, InstalledPackage::version));
-        } catch (IOException e) {
-            throw new RuntimeException("Error reading installed.json", e);
-        }
+        final var installed = LockfileTask.read();
+        if (installed == null || installed.installed() == null) return new HashMap<>();
+        return installed.installed()
+                .stream().collect(Collectors.toMap(InstalledPackage::id, InstalledPackage::version, (a, b) -> b));
     }
 }
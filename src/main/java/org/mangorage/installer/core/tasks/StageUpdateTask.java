@@ -0,0 +1,262 @@
+package org.mangorage.installer.core.tasks;
+
+import org.mangorage.installer.core.ArtifactStore;
+import org.mangorage.installer.core.DependencyGraph;
+import org.mangorage.installer.core.DownloadScheduler;
+import org.mangorage.installer.core.LogUtil;
+import org.mangorage.installer.core.Mirrors;
+import org.mangorage.installer.core.PomResolver;
+import org.mangorage.installer.core.data.ArtifactRecord;
+import org.mangorage.installer.core.data.Dependency;
+import org.mangorage.installer.core.data.Installed;
+import org.mangorage.installer.core.data.InstalledPackage;
+import org.mangorage.installer.core.data.Package;
+import org.mangorage.installer.core.data.Packages;
+import org.mangorage.installer.core.data.Staged;
+import org.mangorage.installer.core.data.StagedFile;
+import org.mangorage.installer.core.data.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mangorage.installer.Installer.GSON;
+
+/**
+ * Downloads an update into installer/staging while the current version keeps running,
+ * so the restart only has to rename files into place. Packages with a destination outside the working directory
+ * are staged right next to it instead, as a .staged file, a rename can't cross file systems.
+ */
+public final class StageUpdateTask {
+    private static final Path STAGING_PATH = Path.of("installer/staging");
+    private static final Path STAGED_PATH = STAGING_PATH.resolve("staged.json");
+    private static final Path PACKAGES_PATH = Path.of("installer/packages.json");
+    private static final String STAGED_SUFFIX = ".staged";
+
+    /**
+     * Resolves every package again, downloads whatever changed into the staging area and verifies it.
+     * Files that didn't change are left where they are. staged.json is only written once everything is in,
+     * a partial staging area never gets promoted.
+     */
+    public static void stage(DownloadScheduler scheduler, DependencyGraph graph, PomResolver resolver) {
+        final long start = System.nanoTime();
+        LogUtil.println("Staging update...");
+        clear();
+
+        final var packagesHash = LockfileTask.hashPackages();
+        final Packages packages;
+        try (Reader reader = Files.newBufferedReader(PACKAGES_PATH)) {
+            packages = GSON.fromJson(reader, Packages.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error reading packages.json", e);
+        }
+        Mirrors.register(packages);
+
+        final Map<String, String> installedVersions = new HashMap<>();
+        final var current = LockfileTask.read();
+        if (current != null && current.installed() != null) {
+            current.installed().forEach(installed -> installedVersions.put(installed.id(), installed.version()));
+        }
+
+        final List<CompletableFuture<String>> versions = packages.packages().stream()
+                .map(pkg -> FetchPackagesTask.fetchLatestVersionAsync(pkg.getMaven(), pkg.version()))
+                .toList();
+
+        final List<StagedFile> files = new ArrayList<>();
+        final List<Path> jars = new ArrayList<>();
+        for (int i = 0; i < packages.packages().size(); i++) {
+            final Package pkg = packages.packages().get(i);
+            final var version = versions.get(i).join();
+            final var target = new File(pkg.getDestination(packages.destination()), pkg.target()).toPath();
+
+            if (version.equals(installedVersions.get(pkg.target())) && ArtifactStore.check(target, Util.getDownloadURL(pkg.getMaven(), version))) {
+                jars.add(target);
+                continue;
+            }
+
+            final var key = ArtifactStore.key(target);
+            final var staged = Path.of(key).isAbsolute()
+                    ? target.resolveSibling(target.getFileName() + STAGED_SUFFIX) // Destination outside the working directory
+                    : STAGING_PATH.resolve(key);
+            LogUtil.println("Staging %s %s".formatted(pkg.target(), version));
+            scheduler.submit(Util.getDownloadURL(pkg.getMaven(), version), () -> Util.downloadTo(pkg.getMaven(), version, staged.toString()));
+            files.add(new StagedFile(ArtifactStore.key(staged), ArtifactStore.key(target)));
+            jars.add(staged);
+        }
+        scheduler.await();
+
+        final List<InstalledPackage> installed = new ArrayList<>();
+        for (int i = 0; i < packages.packages().size(); i++) {
+            final Package pkg = packages.packages().get(i);
+            final var declared = ExtractDependenciesTask.extractDependencies(jars.get(i).toFile());
+            final var dependencies = resolver == null ? declared : resolver.resolve(declared);
+            graph.add(i, pkg.target(), dependencies);
+            installed.add(new InstalledPackage(pkg.target(), versions.get(i).join(), record(jars.get(i), files), dependencies));
+        }
+
+        final var librariesPath = STAGING_PATH.resolve("libraries");
+        final Map<String, Path> libraries = new LinkedHashMap<>();
+        for (Dependency dependency : graph.resolved()) {
+            final var target = HandleDependenciesTask.getLibraryPath(dependency);
+            if (Files.exists(target) && ArtifactStore.check(target, dependency.url() + dependency.output())) {
+                libraries.put(dependency.output(), target);
+                continue;
+            }
+
+            final var staged = librariesPath.resolve(dependency.output());
+            scheduler.submit(dependency.url() + dependency.output(), () -> dependency.install(librariesPath));
+            files.add(new StagedFile(ArtifactStore.key(staged), ArtifactStore.key(target)));
+            libraries.put(dependency.output(), staged);
+        }
+        scheduler.await();
+
+        final List<ArtifactRecord> libraryRecords = new ArrayList<>();
+        libraries.values().forEach(path -> libraryRecords.add(record(path, files)));
+
+        ArtifactStore.save();
+        write(new Staged(new Installed(packagesHash, installed, libraryRecords), files));
+        LogUtil.println("Staged %s file(s) in %sms".formatted(files.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    /**
+     * @return the record of the file, under the path it will have once promoted
+     */
+    private static ArtifactRecord record(Path path, List<StagedFile> files) {
+        final var record = ArtifactStore.getRecord(path);
+        if (record == null) throw new IllegalStateException("No record for " + path + ", can't verify it after promotion");
+
+        final var key = ArtifactStore.key(path);
+        for (StagedFile file : files) {
+            if (file.staged().equals(key)) {
+                return new ArtifactRecord(file.target(), record.size(), record.modified(), record.sha1(), record.sha256());
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Moves staged files into place, if an update was staged for the packages.json we have now.
+     * Picks up where it left off if it got interrupted half way.
+     *
+     * @return whether an update was promoted
+     */
+    public static boolean promote() {
+        if (!Files.exists(STAGED_PATH)) return false;
+
+        final Staged staged;
+        try (Reader reader = Files.newBufferedReader(STAGED_PATH)) {
+            staged = GSON.fromJson(reader, Staged.class);
+        } catch (Exception e) {
+            LogUtil.println("Failed to read staged.json, discarding the staged update");
+            clear();
+            return false;
+        }
+
+        if (staged.installed().packagesHash() == null || !staged.installed().packagesHash().equals(LockfileTask.hashPackages())) {
+            LogUtil.println("packages.json changed since the update was staged, discarding it");
+            clear();
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            for (StagedFile file : staged.files()) {
+                final var from = Path.of(file.staged());
+                final var to = Path.of(file.target());
+                if (!Files.exists(from)) {
+                    if (Files.exists(to)) continue; // Moved before we got interrupted
+                    throw new IOException(from + " is missing");
+                }
+                Files.createDirectories(to.toAbsolutePath().getParent());
+                Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                ArtifactStore.rename(from, to);
+            }
+        } catch (IOException e) {
+            // Whatever got moved is verified and recorded, the lockfile won't match so the next run resolves the rest
+            LogUtil.println("Failed to promote the staged update: " + e.getMessage());
+            LockfileTask.invalidate();
+            clear();
+            return false;
+        } finally {
+            ArtifactStore.save();
+        }
+
+        final var previous = LockfileTask.read();
+        LockfileTask.write(staged.installed());
+        removeReplaced(previous, staged.installed());
+        clear();
+        LogUtil.println("Promoted %s staged file(s) in %sms".formatted(staged.files().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return true;
+    }
+
+    /**
+     * Deletes the libraries of the previous install that the promoted one doesn't use anymore.
+     */
+    private static void removeReplaced(Installed previous, Installed promoted) {
+        if (previous == null || previous.libraries() == null) return;
+        final Set<String> needed = new HashSet<>();
+        promoted.libraries().forEach(record -> needed.add(record.path()));
+
+        final List<Path> replaced = new ArrayList<>();
+        for (ArtifactRecord record : previous.libraries()) {
+            if (!needed.contains(record.path())) replaced.add(Path.of(record.path()));
+        }
+        HandleDependenciesTask.removeReplaced(replaced);
+        ArtifactStore.save();
+    }
+
+    private static void clear() {
+        if (!Files.exists(STAGING_PATH)) return;
+        try {
+            deleteExternal();
+            // staged.json first, so an interrupted clear never leaves a staging area that looks complete
+            Files.deleteIfExists(STAGED_PATH);
+            try (Stream<Path> stream = Files.walk(STAGING_PATH)) {
+                for (Path path : stream.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.println("Failed to clear " + STAGING_PATH + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the files staged next to their target, those aren't inside the staging area.
+     */
+    private static void deleteExternal() throws IOException {
+        if (!Files.exists(STAGED_PATH)) return;
+        final Staged staged;
+        try (Reader reader = Files.newBufferedReader(STAGED_PATH)) {
+            staged = GSON.fromJson(reader, Staged.class);
+        } catch (Exception e) {
+            return; // Unreadable, a later staging overwrites them anyway
+        }
+        if (staged == null || staged.files() == null) return;
+        for (StagedFile file : staged.files()) {
+            if (file.staged().endsWith(STAGED_SUFFIX)) Files.deleteIfExists(Path.of(file.staged()));
+        }
+    }
+
+    private static void write(Staged staged) {
+        try {
+            Util.writeAtomically(STAGED_PATH, GSON.toJson(staged));
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing staged.json", e);
+        }
+    }
+}
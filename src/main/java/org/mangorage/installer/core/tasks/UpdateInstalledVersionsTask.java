@@ -1,21 +1,42 @@
 package org.mangorage.installer.core.tasks;
 
+import org.mangorage.installer.core.ArtifactStore;
+import org.mangorage.installer.core.ProcessedPackage;
+import org.mangorage.installer.core.data.ArtifactRecord;
+import org.mangorage.installer.core.data.Dependency;
 import org.mangorage.installer.core.data.Installed;
 import org.mangorage.installer.core.data.InstalledPackage;
 
-import java.io.FileWriter;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
-import static org.mangorage.installer.Installer.GSON;
-
 public final class UpdateInstalledVersionsTask {
-    public static void updateInstalledVersions(Map<String, String> newVersions) {
-        try (var writer = new FileWriter("installer/installed.json")) {
-            GSON.toJson(new Installed(newVersions.entrySet()
-                    .stream().map(e -> new InstalledPackage(e.getKey(), e.getValue())).toList()), writer);
-        } catch (IOException e) {
-            throw new RuntimeException("Error updating installed.json", e);
+    /**
+     * Writes installed.json once every package and library is in place.
+     *
+     * @param packagesHash what {@link LockfileTask#hashPackages()} returned before the packages were resolved
+     * @param resolved     the one version of each library that got installed
+     */
+    public static void updateInstalledVersions(String packagesHash, List<ProcessedPackage> packages, List<Dependency> resolved) {
+        final List<InstalledPackage> installed = new ArrayList<>();
+        final Map<String, ArtifactRecord> libraries = new LinkedHashMap<>();
+
+        for (ProcessedPackage processed : packages) {
+            installed.add(new InstalledPackage(
+                    processed.id(),
+                    processed.version(),
+                    ArtifactStore.getRecord(processed.file().toPath()),
+                    processed.dependencies()
+            ));
         }
+        for (Dependency dependency : resolved) {
+            libraries.computeIfAbsent(dependency.output(), output -> ArtifactStore.getRecord(HandleDependenciesTask.getLibraryPath(dependency)));
+        }
+
+        // A library without a record can't be checked, so don't let the next start skip resolution
+        final var complete = !libraries.containsValue(null) && installed.stream().allMatch(p -> p.file() != null);
+        LockfileTask.write(new Installed(complete ? packagesHash : null, installed, new ArrayList<>(libraries.values())));
     }
 }